@@ -0,0 +1,37 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.benchmark;
+
+import com.bitsandgates.ecm.annotation.Branch;
+import com.bitsandgates.ecm.domain.BranchOutput;
+import com.bitsandgates.ecm.service.BranchContext;
+
+// Branches that block as if waiting on a remote call
+public class BlockingOperation {
+
+    private static final long IO_MILLIS = 10;
+
+    @Branch
+    public BranchOutput<Integer> read1(BranchContext context) throws InterruptedException {
+        Thread.sleep(IO_MILLIS);
+        return context.outputBuilder(Integer.class).result(1).build();
+    }
+
+    @Branch
+    public BranchOutput<Integer> read2(BranchContext context) throws InterruptedException {
+        Thread.sleep(IO_MILLIS);
+        return context.outputBuilder(Integer.class).result(2).build();
+    }
+
+    @Branch(dependencies = { "read1", "read2" })
+    public BranchOutput<Integer> write(BranchContext context) throws InterruptedException {
+        Thread.sleep(IO_MILLIS);
+        return context.outputBuilder(Integer.class).result(3).build();
+    }
+}
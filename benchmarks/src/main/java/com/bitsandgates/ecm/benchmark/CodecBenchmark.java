@@ -0,0 +1,140 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.bitsandgates.ecm.codec.BinaryCodec;
+import com.bitsandgates.ecm.codec.Codec;
+import com.bitsandgates.ecm.codec.JavaSerializationCodec;
+import com.bitsandgates.ecm.domain.BranchError;
+import com.bitsandgates.ecm.domain.BranchOutput;
+import com.bitsandgates.ecm.domain.Request;
+import com.bitsandgates.ecm.domain.Retry;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+// Retry hand-off of a loop with failed elements. The domain classes have no Jackson bindings, so json decodes to a
+// tree; that is still the cheaper side of a full json round trip.
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodecBenchmark {
+
+    @Param({ "10", "1000" })
+    private int outputs;
+
+    private final Codec binary = BinaryCodec.create();
+
+    private final Codec binaryWithoutTraces = BinaryCodec.builder().omitTraces(true).build();
+
+    private final Codec java = new JavaSerializationCodec();
+
+    private final ObjectMapper json = new ObjectMapper();
+
+    private Request request;
+
+    private byte[] binaryBytes;
+
+    private byte[] javaBytes;
+
+    private byte[] jsonBytes;
+
+    @Setup
+    public void setup() throws IOException {
+        List<BranchOutput<?>> retryOutputs = new ArrayList<>(outputs);
+        for (int i = 0; i < outputs; i++) {
+            BranchError error = null;
+            if (i % 10 == 0) {
+                error = BranchError.builder()
+                        .canRetry(true)
+                        .errorMessage("connection reset")
+                        .errorTrace("java.net.SocketException: connection reset\n\tat Dependency.call(Dependency.java:42)")
+                        .build();
+            }
+            retryOutputs.add(BranchOutput.builder().branchId("loop").index(i).result(error == null ? "element-" + i : null).error(error).build());
+        }
+        request = Request.builder()
+                .traceId("codec")
+                .operatonId(RetryOperation.class.getName())
+                .retryCount(1)
+                .retry(Retry.builder().outputs(retryOutputs).build())
+                .build();
+        binaryBytes = binary.encodeRequest(request);
+        javaBytes = java.encodeRequest(request);
+        jsonBytes = json.writeValueAsBytes(request);
+    }
+
+    // reported next to the score of each encode benchmark
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class EncodedSize {
+
+        public long bytes;
+
+        byte[] record(byte[] encoded) {
+            bytes = encoded.length;
+            return encoded;
+        }
+    }
+
+    @Benchmark
+    public byte[] encodeBinary(EncodedSize size) {
+        return size.record(binary.encodeRequest(request));
+    }
+
+    @Benchmark
+    public byte[] encodeBinaryWithoutTraces(EncodedSize size) {
+        return size.record(binaryWithoutTraces.encodeRequest(request));
+    }
+
+    @Benchmark
+    public byte[] encodeJava(EncodedSize size) {
+        return size.record(java.encodeRequest(request));
+    }
+
+    @Benchmark
+    public byte[] encodeJson(EncodedSize size) throws IOException {
+        return size.record(json.writeValueAsBytes(request));
+    }
+
+    @Benchmark
+    public Request decodeBinary() {
+        return binary.decodeRequest(binaryBytes);
+    }
+
+    @Benchmark
+    public Request decodeJava() {
+        return java.decodeRequest(javaBytes);
+    }
+
+    @Benchmark
+    public JsonNode decodeJson() throws IOException {
+        return json.readTree(jsonBytes);
+    }
+}
@@ -0,0 +1,57 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.benchmark;
+
+import com.bitsandgates.ecm.annotation.Branch;
+import com.bitsandgates.ecm.domain.BranchOutput;
+import com.bitsandgates.ecm.service.BranchContext;
+
+// Chain of eight branches, each depending on the previous one
+public class DeepOperation {
+
+    @Branch
+    public BranchOutput<Integer> branch1(BranchContext context) {
+        return context.outputBuilder(Integer.class).result(1).build();
+    }
+
+    @Branch(dependencies = "branch1")
+    public BranchOutput<Integer> branch2(BranchContext context) {
+        return context.outputBuilder(Integer.class).result(context.<Integer>getDependencyOutput("branch1").getResult() + 1).build();
+    }
+
+    @Branch(dependencies = "branch2")
+    public BranchOutput<Integer> branch3(BranchContext context) {
+        return context.outputBuilder(Integer.class).result(context.<Integer>getDependencyOutput("branch2").getResult() + 1).build();
+    }
+
+    @Branch(dependencies = "branch3")
+    public BranchOutput<Integer> branch4(BranchContext context) {
+        return context.outputBuilder(Integer.class).result(context.<Integer>getDependencyOutput("branch3").getResult() + 1).build();
+    }
+
+    @Branch(dependencies = "branch4")
+    public BranchOutput<Integer> branch5(BranchContext context) {
+        return context.outputBuilder(Integer.class).result(context.<Integer>getDependencyOutput("branch4").getResult() + 1).build();
+    }
+
+    @Branch(dependencies = "branch5")
+    public BranchOutput<Integer> branch6(BranchContext context) {
+        return context.outputBuilder(Integer.class).result(context.<Integer>getDependencyOutput("branch5").getResult() + 1).build();
+    }
+
+    @Branch(dependencies = "branch6")
+    public BranchOutput<Integer> branch7(BranchContext context) {
+        return context.outputBuilder(Integer.class).result(context.<Integer>getDependencyOutput("branch6").getResult() + 1).build();
+    }
+
+    @Branch(dependencies = "branch7")
+    public BranchOutput<Integer> branch8(BranchContext context) {
+        return context.outputBuilder(Integer.class).result(context.<Integer>getDependencyOutput("branch7").getResult() + 1).build();
+    }
+}
@@ -0,0 +1,81 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.bitsandgates.ecm.domain.Request;
+import com.bitsandgates.ecm.domain.Response;
+import com.bitsandgates.ecm.service.Operation;
+import com.bitsandgates.ecm.service.Service;
+
+// Compares the cached thread pool with virtual threads (JDK 21 and later) for I/O bound branches, each invocation
+// keeps 10k operations in flight at once
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ExecutorBenchmark {
+
+    @Param({ "cached", "virtual" })
+    private String executor;
+
+    @Param({ "10000" })
+    private int operations;
+
+    private ExecutorService executorService;
+
+    private Service service;
+
+    private Request request;
+
+    @Setup
+    public void setup() {
+        executorService = "virtual".equals(executor) ? Service.newVirtualThreadExecutor() : Executors.newCachedThreadPool();
+        service = new QuietService(executorService, 1);
+        Operation.bindToServcie(service, new BlockingOperation());
+        request = Request.builder().traceId("blocking").operatonId(BlockingOperation.class.getName()).build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        executorService.shutdownNow();
+    }
+
+    @Benchmark
+    public List<Response> concurrentOperations() {
+        List<CompletableFuture<Response>> futures = new ArrayList<>(operations);
+        for (int i = 0; i < operations; i++) {
+            futures.add(service.processAsync(request));
+        }
+        List<Response> responses = new ArrayList<>(operations);
+        futures.forEach(future -> responses.add(future.join()));
+        return responses;
+    }
+}
@@ -0,0 +1,55 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.benchmark;
+
+import java.util.List;
+
+import com.bitsandgates.ecm.annotation.Branch;
+import com.bitsandgates.ecm.annotation.LoopBranch;
+import com.bitsandgates.ecm.domain.BranchInput;
+import com.bitsandgates.ecm.domain.BranchOutput;
+import com.bitsandgates.ecm.domain.Response;
+import com.bitsandgates.ecm.service.BranchContext;
+
+// A single branch looping over the request payload
+public class LoopOperation {
+
+    @Branch
+    public BranchOutput<Object> loopCaller(BranchContext context) {
+        BranchInput<Payload> input = context.getInput();
+        Payload payload = input.getValue();
+        Response response = context.loopBranch("iteration", null, payload.getElements(), payload.getConcurrency());
+        return context.outputBuilder(Object.class).result(response.getPayload()).build();
+    }
+
+    @LoopBranch
+    public BranchOutput<Integer> iteration(BranchContext context, Object loopData, Integer element, int index) {
+        return context.outputBuilder(Integer.class).result(element * 2).build();
+    }
+
+    public static class Payload {
+
+        private final List<Integer> elements;
+
+        private final int concurrency;
+
+        public Payload(List<Integer> elements, int concurrency) {
+            this.elements = elements;
+            this.concurrency = concurrency;
+        }
+
+        public List<Integer> getElements() {
+            return elements;
+        }
+
+        public int getConcurrency() {
+            return concurrency;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.benchmark;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.bitsandgates.ecm.domain.Request;
+import com.bitsandgates.ecm.domain.Response;
+import com.bitsandgates.ecm.service.Operation;
+import com.bitsandgates.ecm.service.Service;
+
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OperationBenchmark {
+
+    private ExecutorService executorService;
+
+    private Service service;
+
+    private Request wideRequest;
+
+    private Request deepRequest;
+
+    @Setup
+    public void setup() {
+        executorService = Executors.newCachedThreadPool();
+        service = new QuietService(executorService, 1);
+        Operation.bindToServcie(service, new WideOperation());
+        Operation.bindToServcie(service, new DeepOperation());
+        wideRequest = Request.builder().traceId("wide").operatonId(WideOperation.class.getName()).build();
+        deepRequest = Request.builder().traceId("deep").operatonId(DeepOperation.class.getName()).build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        executorService.shutdownNow();
+    }
+
+    @Benchmark
+    public Response wideFanOut() {
+        return service.process(wideRequest);
+    }
+
+    @Benchmark
+    public Response deepChain() {
+        return service.process(deepRequest);
+    }
+}
@@ -0,0 +1,27 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.benchmark;
+
+import java.util.concurrent.ExecutorService;
+
+import com.bitsandgates.ecm.domain.Request;
+import com.bitsandgates.ecm.domain.Response;
+import com.bitsandgates.ecm.service.Service;
+
+// Does not log exhausted retries, which would otherwise dominate the retry benchmarks
+public class QuietService extends Service {
+
+    public QuietService(ExecutorService executorService, int maxTries) {
+        super(executorService, maxTries);
+    }
+
+    @Override
+    protected void onErrorAfterRetries(Request request, Response response, int numTries) {
+    }
+}
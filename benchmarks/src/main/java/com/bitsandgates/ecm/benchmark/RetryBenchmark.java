@@ -0,0 +1,78 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.benchmark;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.bitsandgates.ecm.domain.Request;
+import com.bitsandgates.ecm.domain.Response;
+import com.bitsandgates.ecm.service.Operation;
+import com.bitsandgates.ecm.service.Service;
+
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RetryBenchmark {
+
+    private ExecutorService executorService;
+
+    // single try, used to produce the retry and to replay it
+    private Service replayService;
+
+    // fails on the first try and completes on the second
+    private Service retryingService;
+
+    private Request request;
+
+    private Request replayRequest;
+
+    @Setup
+    public void setup() {
+        executorService = Executors.newCachedThreadPool();
+        replayService = new QuietService(executorService, 1);
+        retryingService = new QuietService(executorService, 2);
+        Operation.bindToServcie(replayService, new RetryOperation());
+        Operation.bindToServcie(retryingService, new RetryOperation());
+        request = Request.builder().traceId("retry").operatonId(RetryOperation.class.getName()).build();
+        Response response = replayService.process(request);
+        replayRequest = request.toBuilder().retry(response.getRetry()).retryCount(1).build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        executorService.shutdownNow();
+    }
+
+    @Benchmark
+    public Response replayRetry() {
+        return replayService.process(replayRequest);
+    }
+
+    @Benchmark
+    public Response failAndRetry() {
+        return retryingService.process(request);
+    }
+}
@@ -0,0 +1,25 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.benchmark;
+
+import com.bitsandgates.ecm.annotation.Branch;
+import com.bitsandgates.ecm.domain.BranchOutput;
+import com.bitsandgates.ecm.service.BranchContext;
+
+// Eight branches that always succeed and one that fails on the first attempt only
+public class RetryOperation extends WideOperation {
+
+    @Branch(dependencies = { "branch1", "branch2" })
+    public BranchOutput<Integer> flaky(BranchContext context) {
+        if (context.getRetryCount() == 0) {
+            throw new IllegalStateException("first attempt");
+        }
+        return context.outputBuilder(Integer.class).result(0).build();
+    }
+}
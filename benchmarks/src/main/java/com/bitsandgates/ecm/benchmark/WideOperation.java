@@ -0,0 +1,57 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.benchmark;
+
+import com.bitsandgates.ecm.annotation.Branch;
+import com.bitsandgates.ecm.domain.BranchOutput;
+import com.bitsandgates.ecm.service.BranchContext;
+
+// Eight independent branches, all scheduled at once
+public class WideOperation {
+
+    @Branch
+    public BranchOutput<Integer> branch1(BranchContext context) {
+        return context.outputBuilder(Integer.class).result(1).build();
+    }
+
+    @Branch
+    public BranchOutput<Integer> branch2(BranchContext context) {
+        return context.outputBuilder(Integer.class).result(2).build();
+    }
+
+    @Branch
+    public BranchOutput<Integer> branch3(BranchContext context) {
+        return context.outputBuilder(Integer.class).result(3).build();
+    }
+
+    @Branch
+    public BranchOutput<Integer> branch4(BranchContext context) {
+        return context.outputBuilder(Integer.class).result(4).build();
+    }
+
+    @Branch
+    public BranchOutput<Integer> branch5(BranchContext context) {
+        return context.outputBuilder(Integer.class).result(5).build();
+    }
+
+    @Branch
+    public BranchOutput<Integer> branch6(BranchContext context) {
+        return context.outputBuilder(Integer.class).result(6).build();
+    }
+
+    @Branch
+    public BranchOutput<Integer> branch7(BranchContext context) {
+        return context.outputBuilder(Integer.class).result(7).build();
+    }
+
+    @Branch
+    public BranchOutput<Integer> branch8(BranchContext context) {
+        return context.outputBuilder(Integer.class).result(8).build();
+    }
+}
@@ -0,0 +1,33 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.annotation;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+// Delay before the operation (or loop) is tried again when this branch asks for a retry, overriding the service
+// retry policy. When several branches ask for a retry the longest delay wins.
+@Retention(RUNTIME)
+@Target(METHOD)
+public @interface Backoff {
+
+    enum Policy {
+        FIXED, EXPONENTIAL, DECORRELATED_JITTER
+    }
+
+    Policy policy() default Policy.EXPONENTIAL;
+
+    long delayMillis();
+
+    // 0 for no upper bound
+    long maxDelayMillis() default 0;
+}
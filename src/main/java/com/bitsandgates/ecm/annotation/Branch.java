@@ -23,4 +23,23 @@ public @interface Branch {
     String[] dependencies() default {};
     
     boolean deterministic() default true;
+
+    // 0 for none, a branch that times out is interrupted and reported as a retryable error
+    long timeoutMillis() default 0;
+
+    // Invokes the branch a second time if it has not returned after this delay and uses whichever invocation returns
+    // first, for idempotent branches whose latency tail comes from a slow replica. 0 for no hedging.
+    long hedgeAfterMillis() default 0;
+
+    // Hedges after this percentile (e.g. 95) of the branch's recent latencies instead, hedgeAfterMillis applies until
+    // enough latencies have been seen. 0 for a fixed delay.
+    double hedgeAfterPercentile() default 0;
+
+    // Reported by the service's Watchdog, with a stack sample of its thread, when a run of the branch takes longer than
+    // this. 0 defers to the watchdog's threshold.
+    long slowAfterMillis() default 0;
+
+    // Reported after this percentile (e.g. 99) of the branch's recent latencies instead, slowAfterMillis applies until
+    // enough latencies have been seen. 0 for a fixed threshold.
+    double slowAfterPercentile() default 0;
 }
@@ -0,0 +1,24 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.annotation;
+
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+// On an operation class: once a branch completes with an error that cannot be retried, branches that have not started
+// are cancelled without being invoked, running branches are interrupted and the response is returned straight away
+@Inherited
+@Retention(RUNTIME)
+@Target(TYPE)
+public @interface FailFast {
+}
@@ -21,4 +21,15 @@ public @interface LoopBranch {
     String branchId() default "";
 
     boolean deterministic() default true;
+
+    // 0 defers to the concurrency passed to loopBranch or the service default
+    int concurrency() default 0;
+
+    // grow and shrink the iterations in flight based on observed latency and errors, up to the service maximum or the
+    // loop's concurrency if higher
+    boolean adaptiveConcurrency() default false;
+
+    // when greater than 0 the method receives chunks of up to chunkSize elements and returns an output per element:
+    // List<BranchOutput<?>> method(BranchContext context, Object loopData, List<?> chunk, int startIndex)
+    int chunkSize() default 0;
 }
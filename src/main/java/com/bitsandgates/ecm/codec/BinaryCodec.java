@@ -0,0 +1,393 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.codec;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.bitsandgates.ecm.domain.BranchError;
+import com.bitsandgates.ecm.domain.BranchInput;
+import com.bitsandgates.ecm.domain.BranchOutput;
+import com.bitsandgates.ecm.domain.Request;
+import com.bitsandgates.ecm.domain.Response;
+import com.bitsandgates.ecm.domain.Retry;
+
+import lombok.Builder;
+
+// Compact binary format. Integers are varints, strings are interned per message so that a branch id or error message
+// repeated by many outputs is written once, and error traces can be left out. Strings, longs, integers, booleans and
+// doubles are written directly, any other value goes through the ValueCodec.
+//
+// Message: [byte magic][byte version][byte kind] then the request or response fields in declaration order.
+// String: varint 0 for null, 1 followed by varint length and utf-8 bytes for a new string, n + 2 for the nth string.
+@Builder
+public class BinaryCodec implements Codec {
+
+    private static final byte MAGIC = (byte) 0xEC;
+
+    private static final byte VERSION = 1;
+
+    private static final byte REQUEST = 1;
+
+    private static final byte RESPONSE = 2;
+
+    private static final int ERROR = 1;
+
+    private static final int CAN_RETRY = 2;
+
+    private static final byte NULL = 0;
+
+    private static final byte STRING = 1;
+
+    private static final byte INTEGER = 2;
+
+    private static final byte LONG = 3;
+
+    private static final byte BOOLEAN = 4;
+
+    private static final byte DOUBLE = 5;
+
+    private static final byte OTHER = 6;
+
+    @Builder.Default
+    private final ValueCodec valueCodec = ValueCodec.javaSerialization();
+
+    // error traces are usually the bulk of a retry and are not needed to replay it
+    private final boolean omitTraces;
+
+    public static BinaryCodec create() {
+        return builder().build();
+    }
+
+    @Override
+    public byte[] encodeRequest(Request request) {
+        Output out = new Output(REQUEST);
+        out.writeString(request.getTraceId());
+        out.writeString(request.getOperatonId());
+        out.writeVarint(request.getRetryCount());
+        out.writeVarlong(request.getDeadlineMillis());
+        writeRetry(out, request.getRetry());
+        writeValue(out, request.getPayload());
+        return out.toByteArray();
+    }
+
+    @Override
+    public Request decodeRequest(byte[] bytes) {
+        Input in = new Input(bytes, REQUEST);
+        return Request.builder()
+                .traceId(in.readString())
+                .operatonId(in.readString())
+                .retryCount(in.readVarint())
+                .deadlineMillis(in.readVarlong())
+                .retry(readRetry(in))
+                .payload(readValue(in))
+                .build();
+    }
+
+    @Override
+    public byte[] encodeResponse(Response response) {
+        Output out = new Output(RESPONSE);
+        out.writeString(response.getTraceId());
+        out.writeString(response.getOperationId());
+        writeRetry(out, response.getRetry());
+        writeValue(out, response.getPayload());
+        return out.toByteArray();
+    }
+
+    @Override
+    public Response decodeResponse(byte[] bytes) {
+        Input in = new Input(bytes, RESPONSE);
+        return Response.builder()
+                .traceId(in.readString())
+                .operationId(in.readString())
+                .retry(readRetry(in))
+                .payload(readValue(in))
+                .build();
+    }
+
+    private void writeRetry(Output out, Retry retry) {
+        if (retry == null) {
+            out.writeByte(0);
+            return;
+        }
+        out.writeByte(1);
+        BranchInput<?> input = retry.getBranchInput();
+        out.writeByte(input != null ? 1 : 0);
+        if (input != null) {
+            writeValue(out, input.getValue());
+        }
+        List<BranchOutput<?>> outputs = retry.getOutputs();
+        // 0 for null, otherwise size + 1
+        out.writeVarint(outputs != null ? outputs.size() + 1 : 0);
+        if (outputs != null) {
+            for (BranchOutput<?> output : outputs) {
+                writeOutput(out, output);
+            }
+        }
+    }
+
+    private Retry readRetry(Input in) {
+        if (in.readByte() == 0) {
+            return null;
+        }
+        BranchInput<?> input = in.readByte() != 0 ? BranchInput.builder().value(readValue(in)).build() : null;
+        int size = in.readVarint() - 1;
+        List<BranchOutput<?>> outputs = null;
+        if (size >= 0) {
+            outputs = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                outputs.add(readOutput(in));
+            }
+        }
+        return Retry.builder().branchInput(input).outputs(outputs).build();
+    }
+
+    private void writeOutput(Output out, BranchOutput<?> output) {
+        BranchError error = output.getError();
+        out.writeString(output.getBranchId());
+        out.writeVarint(output.getIndex());
+        out.writeByte((error != null ? ERROR : 0) | (error != null && error.canRetry() ? CAN_RETRY : 0));
+        if (error != null) {
+            out.writeString(error.getErrorMessage());
+            out.writeString(omitTraces ? null : error.getErrorTrace());
+        }
+        writeValue(out, output.getResult());
+    }
+
+    private BranchOutput<?> readOutput(Input in) {
+        String branchId = in.readString();
+        int index = in.readVarint();
+        int flags = in.readByte();
+        BranchError error = null;
+        if ((flags & ERROR) != 0) {
+            error = BranchError.builder()
+                    .canRetry((flags & CAN_RETRY) != 0)
+                    .errorMessage(in.readString())
+                    .errorTrace(in.readString())
+                    .build();
+        }
+        return BranchOutput.builder()
+                .branchId(branchId)
+                .index(index)
+                .error(error)
+                .result(readValue(in))
+                .build();
+    }
+
+    private void writeValue(Output out, Object value) {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof String) {
+            out.writeByte(STRING);
+            out.writeString((String) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(INTEGER);
+            out.writeVarlong(zigzag((Integer) value));
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeVarlong(zigzag((Long) value));
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeByte((Boolean) value ? 1 : 0);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeLong(Double.doubleToRawLongBits((Double) value));
+        } else {
+            out.writeByte(OTHER);
+            out.writeBytes(valueCodec.encode(value));
+        }
+    }
+
+    private Object readValue(Input in) {
+        byte type = in.readByte();
+        switch (type) {
+        case NULL:
+            return null;
+        case STRING:
+            return in.readString();
+        case INTEGER:
+            return (int) unzigzag(in.readVarlong());
+        case LONG:
+            return unzigzag(in.readVarlong());
+        case BOOLEAN:
+            return in.readByte() != 0;
+        case DOUBLE:
+            return Double.longBitsToDouble(in.readLong());
+        case OTHER:
+            return valueCodec.decode(in.readBytes());
+        default:
+            throw new CodecException(String.format("Invalid value type [%d]", type));
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static class Output {
+
+        private final Map<String, Integer> strings = new HashMap<>();
+
+        private byte[] buffer = new byte[256];
+
+        private int position;
+
+        Output(byte kind) {
+            writeByte(MAGIC);
+            writeByte(VERSION);
+            writeByte(kind);
+        }
+
+        void writeByte(int value) {
+            ensure(1);
+            buffer[position++] = (byte) value;
+        }
+
+        void writeVarint(int value) {
+            writeVarlong(value & 0xFFFFFFFFL);
+        }
+
+        void writeVarlong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[position++] = (byte) value;
+        }
+
+        void writeLong(long value) {
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buffer[position++] = (byte) (value >>> shift);
+            }
+        }
+
+        void writeBytes(byte[] bytes) {
+            writeVarint(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buffer, position, bytes.length);
+            position += bytes.length;
+        }
+
+        void writeString(String value) {
+            if (value == null) {
+                writeVarint(0);
+                return;
+            }
+            Integer reference = strings.get(value);
+            if (reference != null) {
+                writeVarint(reference + 2);
+                return;
+            }
+            strings.put(value, strings.size());
+            writeVarint(1);
+            writeBytes(value.getBytes(UTF_8));
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, position);
+        }
+
+        private void ensure(int size) {
+            if (position + size > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + size));
+            }
+        }
+    }
+
+    private static class Input {
+
+        private final List<String> strings = new ArrayList<>();
+
+        private final byte[] buffer;
+
+        private int position;
+
+        Input(byte[] buffer, byte kind) {
+            this.buffer = buffer;
+            if (buffer.length < 3 || buffer[0] != MAGIC || buffer[1] != VERSION || buffer[2] != kind) {
+                throw new CodecException(String.format("Invalid header, expected version [%d] kind [%d]", VERSION, kind));
+            }
+            position = 3;
+        }
+
+        byte readByte() {
+            check(1);
+            return buffer[position++];
+        }
+
+        int readVarint() {
+            return (int) readVarlong();
+        }
+
+        long readVarlong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new CodecException("Invalid varint");
+        }
+
+        long readLong() {
+            check(8);
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | (buffer[position++] & 0xFF);
+            }
+            return value;
+        }
+
+        byte[] readBytes() {
+            int length = readVarint();
+            check(length);
+            byte[] bytes = Arrays.copyOfRange(buffer, position, position + length);
+            position += length;
+            return bytes;
+        }
+
+        String readString() {
+            int reference = readVarint();
+            if (reference == 0) {
+                return null;
+            }
+            if (reference == 1) {
+                int length = readVarint();
+                check(length);
+                String value = new String(buffer, position, length, UTF_8);
+                position += length;
+                strings.add(value);
+                return value;
+            }
+            if (reference - 2 >= strings.size()) {
+                throw new CodecException(String.format("Invalid string reference [%d]", reference - 2));
+            }
+            return strings.get(reference - 2);
+        }
+
+        private void check(int size) {
+            if (size < 0 || position + size > buffer.length) {
+                throw new CodecException(String.format("Invalid length [%d] at [%d] of [%d] bytes", size, position, buffer.length));
+            }
+        }
+    }
+}
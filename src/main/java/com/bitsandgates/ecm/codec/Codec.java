@@ -0,0 +1,25 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.codec;
+
+import com.bitsandgates.ecm.domain.Request;
+import com.bitsandgates.ecm.domain.Response;
+
+// Turns requests and responses, including their Retry, into bytes and back, e.g. to hand a retry over to another
+// process through a queue
+public interface Codec {
+
+    byte[] encodeRequest(Request request);
+
+    Request decodeRequest(byte[] bytes);
+
+    byte[] encodeResponse(Response response);
+
+    Response decodeResponse(byte[] bytes);
+}
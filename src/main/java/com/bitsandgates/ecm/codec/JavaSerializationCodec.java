@@ -0,0 +1,36 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.codec;
+
+import com.bitsandgates.ecm.domain.Request;
+import com.bitsandgates.ecm.domain.Response;
+
+// Java serialization of the domain classes, mostly as a baseline for BinaryCodec
+public class JavaSerializationCodec implements Codec {
+
+    @Override
+    public byte[] encodeRequest(Request request) {
+        return ValueCodec.javaSerialization().encode(request);
+    }
+
+    @Override
+    public Request decodeRequest(byte[] bytes) {
+        return (Request) ValueCodec.javaSerialization().decode(bytes);
+    }
+
+    @Override
+    public byte[] encodeResponse(Response response) {
+        return ValueCodec.javaSerialization().encode(response);
+    }
+
+    @Override
+    public Response decodeResponse(byte[] bytes) {
+        return (Response) ValueCodec.javaSerialization().decode(bytes);
+    }
+}
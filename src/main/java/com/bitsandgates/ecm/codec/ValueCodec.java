@@ -0,0 +1,52 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+// Encodes the application values carried by requests and responses: payloads, branch inputs and branch results
+public interface ValueCodec {
+
+    byte[] encode(Object value);
+
+    Object decode(byte[] bytes);
+
+    static ValueCodec javaSerialization() {
+        return JavaSerialization.INSTANCE;
+    }
+
+    class JavaSerialization implements ValueCodec {
+
+        private static final JavaSerialization INSTANCE = new JavaSerialization();
+
+        @Override
+        public byte[] encode(Object value) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.writeObject(value);
+            } catch (IOException e) {
+                throw new CodecException(String.format("Cannot serialize [%s]", value.getClass().getName()), e);
+            }
+            return bytes.toByteArray();
+        }
+
+        @Override
+        public Object decode(byte[] bytes) {
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                return in.readObject();
+            } catch (IOException | ClassNotFoundException e) {
+                throw new CodecException("Cannot deserialize value", e);
+            }
+        }
+    }
+}
@@ -8,23 +8,56 @@ LICENSE file in the root directory of this source tree.
 
 package com.bitsandgates.ecm.domain;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.function.Supplier;
+
 import lombok.AccessLevel;
 import lombok.Builder;
 import lombok.Getter;
+import lombok.ToString;
 import lombok.Value;
+import lombok.experimental.NonFinal;
 
 @Value
 @Builder
-public class BranchError {
+public class BranchError implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     @Getter(AccessLevel.NONE)
     private boolean canRetry;
 
     private String errorMessage;
 
-    private String errorTrace;
-    
+    // rendered from errorTraceSupplier on first access, most failures are retried and their trace is never read;
+    // toString renders it through getErrorTrace
+    @NonFinal
+    @ToString.Exclude
+    private volatile String errorTrace;
+
+    @NonFinal
+    @Getter(AccessLevel.NONE)
+    @ToString.Exclude
+    private transient volatile Supplier<String> errorTraceSupplier;
+
     public boolean canRetry() {
         return canRetry;
     }
+
+    @ToString.Include(name = "errorTrace")
+    public String getErrorTrace() {
+        Supplier<String> supplier = errorTraceSupplier;
+        if (errorTrace == null && supplier != null) {
+            errorTrace = supplier.get();
+            errorTraceSupplier = null;
+        }
+        return errorTrace;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        getErrorTrace();
+        out.defaultWriteObject();
+    }
 }
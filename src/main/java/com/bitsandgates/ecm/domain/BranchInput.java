@@ -8,6 +8,8 @@ LICENSE file in the root directory of this source tree.
 
 package com.bitsandgates.ecm.domain;
 
+import java.io.Serializable;
+
 import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -18,7 +20,9 @@ import lombok.ToString;
 @ToString
 @AllArgsConstructor(access = AccessLevel.PROTECTED)
 @Builder
-public class BranchInput<T> {
+public class BranchInput<T> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     T value;
 }
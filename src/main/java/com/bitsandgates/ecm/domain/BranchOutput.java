@@ -8,6 +8,8 @@ LICENSE file in the root directory of this source tree.
 
 package com.bitsandgates.ecm.domain;
 
+import java.io.Serializable;
+
 import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -18,7 +20,9 @@ import lombok.ToString;
 @ToString
 @AllArgsConstructor(access = AccessLevel.PROTECTED)
 @Builder(toBuilder = true)
-public class BranchOutput<T> {
+public class BranchOutput<T> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     private String branchId;
 
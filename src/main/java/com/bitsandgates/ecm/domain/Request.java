@@ -8,6 +8,8 @@ LICENSE file in the root directory of this source tree.
 
 package com.bitsandgates.ecm.domain;
 
+import java.io.Serializable;
+
 import lombok.Builder;
 import lombok.Getter;
 import lombok.ToString;
@@ -15,7 +17,9 @@ import lombok.ToString;
 @Getter
 @ToString
 @Builder(toBuilder = true)
-public class Request {
+public class Request implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     private String traceId;
 
@@ -23,6 +27,9 @@ public class Request {
 
     private int retryCount;
 
+    // epoch millis after which the operation is abandoned and not retried, 0 for none
+    private long deadlineMillis;
+
     private Retry retry;
 
     private Object payload;
@@ -8,6 +8,7 @@ LICENSE file in the root directory of this source tree.
 
 package com.bitsandgates.ecm.domain;
 
+import java.io.Serializable;
 import java.util.List;
 
 import lombok.Builder;
@@ -15,7 +16,9 @@ import lombok.Value;
 
 @Value
 @Builder
-public class Retry {
+public class Retry implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     private BranchInput<?> branchInput;
 
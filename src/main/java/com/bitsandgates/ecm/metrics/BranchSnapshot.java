@@ -0,0 +1,24 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.metrics;
+
+import java.util.List;
+
+import lombok.Value;
+
+@Value
+public class BranchSnapshot {
+
+    String branchId;
+
+    BranchState state;
+
+    // dependencies that have not completed yet
+    List<String> waitingFor;
+}
@@ -0,0 +1,20 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.metrics;
+
+// State of a branch of an in-flight operation
+public enum BranchState {
+    // some of its dependencies have not completed
+    PENDING,
+    // submitted to the executor, or waiting for the delay of an in place retry, but not running
+    WAITING,
+    RUNNING,
+    DONE,
+    FAILED
+}
@@ -0,0 +1,46 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.metrics;
+
+import java.util.List;
+
+import lombok.Value;
+
+// When a branch of one try of an operation became ready, started and ended, in nanoseconds since the try started. A
+// branch whose output was reused from a previous try, or that was cancelled before it started, is not executed and
+// starts when it ends.
+@Value
+public class BranchTiming {
+
+    String branchId;
+
+    List<String> dependencies;
+
+    // length of the longest chain of dependencies leading to the branch
+    int level;
+
+    // when the last of its dependencies ended
+    long readyNanos;
+
+    long startNanos;
+
+    long endNanos;
+
+    // how much later the branch could have ended without delaying the operation
+    long slackNanos;
+
+    boolean critical;
+
+    boolean executed;
+
+    // from ready to end, including queueing, in place retries and hedges
+    public long getLatencyNanos() {
+        return endNanos - readyNanos;
+    }
+}
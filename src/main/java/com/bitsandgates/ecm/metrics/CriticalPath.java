@@ -0,0 +1,85 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.metrics;
+
+import java.util.List;
+
+import lombok.Value;
+
+// The chain of dependent branches that determined how long one try of an operation took: starting from the branch
+// that ended last, each branch on it is preceded by the dependency that ended last.
+@Value
+public class CriticalPath {
+
+    String operationId;
+
+    String traceId;
+
+    // from the start of the try until its last branch ended
+    long durationNanos;
+
+    // branch ids, from the first branch to the one that ended last
+    List<String> path;
+
+    // in topological order
+    List<BranchTiming> branches;
+
+    // null if the operation has no such branch
+    public BranchTiming getBranch(String branchId) {
+        return branches.stream().filter(branch -> branch.getBranchId().equals(branchId)).findFirst().orElse(null);
+    }
+
+    // Graphviz digraph, critical branches and edges in red, each branch labelled with its latency and slack and
+    // branches of the same level in the same rank
+    public String toDot() {
+        StringBuilder dot = GraphFormat.digraph(operationId);
+        for (BranchTiming branch : branches) {
+            GraphFormat.node(dot, branch.getBranchId(), branch.isCritical(),
+                    "latency " + GraphFormat.millis(branch.getLatencyNanos()) + " ms",
+                    "slack " + GraphFormat.millis(branch.getSlackNanos()) + " ms");
+        }
+        GraphFormat.ranks(dot, branches, BranchTiming::getBranchId, BranchTiming::getLevel);
+        for (BranchTiming branch : branches) {
+            for (String dependency : branch.getDependencies()) {
+                GraphFormat.edge(dot, dependency, branch.getBranchId(), isCriticalEdge(dependency, branch.getBranchId()));
+            }
+        }
+        return dot.append("}\n").toString();
+    }
+
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{");
+        GraphFormat.field(json, "operationId", operationId).append(',');
+        GraphFormat.field(json, "traceId", traceId).append(',');
+        json.append("\"durationMillis\":").append(GraphFormat.millis(durationNanos)).append(',');
+        json.append("\"path\":");
+        GraphFormat.array(json, path).append(",\"branches\":[");
+        for (int i = 0; i < branches.size(); i++) {
+            BranchTiming branch = branches.get(i);
+            json.append(i > 0 ? ",{" : "{");
+            GraphFormat.field(json, "branchId", branch.getBranchId()).append(",\"dependencies\":");
+            GraphFormat.array(json, branch.getDependencies());
+            json.append(",\"level\":").append(branch.getLevel())
+                    .append(",\"readyMillis\":").append(GraphFormat.millis(branch.getReadyNanos()))
+                    .append(",\"startMillis\":").append(GraphFormat.millis(branch.getStartNanos()))
+                    .append(",\"endMillis\":").append(GraphFormat.millis(branch.getEndNanos()))
+                    .append(",\"latencyMillis\":").append(GraphFormat.millis(branch.getLatencyNanos()))
+                    .append(",\"slackMillis\":").append(GraphFormat.millis(branch.getSlackNanos()))
+                    .append(",\"critical\":").append(branch.isCritical())
+                    .append(",\"executed\":").append(branch.isExecuted())
+                    .append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    private boolean isCriticalEdge(String from, String to) {
+        int position = path.indexOf(to);
+        return position > 0 && path.get(position - 1).equals(from);
+    }
+}
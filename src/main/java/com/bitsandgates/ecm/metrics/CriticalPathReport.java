@@ -0,0 +1,89 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.metrics;
+
+import java.util.List;
+import java.util.Locale;
+
+import lombok.Value;
+
+// Aggregate of the critical paths of an operation since the service started, branches most often critical first
+@Value
+public class CriticalPathReport {
+
+    String operationId;
+
+    // number of tries analysed
+    long count;
+
+    List<BranchStats> branches;
+
+    @Value
+    public static class BranchStats {
+
+        String branchId;
+
+        List<String> dependencies;
+
+        // length of the longest chain of dependencies leading to the branch
+        int level;
+
+        // tries the branch was on the critical path of
+        long criticalCount;
+
+        long meanLatencyNanos;
+
+        long meanSlackNanos;
+
+        double criticalRate;
+    }
+
+    // null if the operation has no such branch
+    public BranchStats getBranch(String branchId) {
+        return branches.stream().filter(branch -> branch.getBranchId().equals(branchId)).findFirst().orElse(null);
+    }
+
+    // Graphviz digraph, each branch labelled with how often it was critical and its mean latency and slack, branches
+    // critical in at least half of the tries in red and branches of the same level in the same rank
+    public String toDot() {
+        StringBuilder dot = GraphFormat.digraph(operationId);
+        for (BranchStats branch : branches) {
+            GraphFormat.node(dot, branch.getBranchId(), branch.getCriticalRate() >= 0.5,
+                    "critical " + Math.round(branch.getCriticalRate() * 100) + "%",
+                    "latency " + GraphFormat.millis(branch.getMeanLatencyNanos()) + " ms",
+                    "slack " + GraphFormat.millis(branch.getMeanSlackNanos()) + " ms");
+        }
+        GraphFormat.ranks(dot, branches, BranchStats::getBranchId, BranchStats::getLevel);
+        for (BranchStats branch : branches) {
+            for (String dependency : branch.getDependencies()) {
+                GraphFormat.edge(dot, dependency, branch.getBranchId(), false);
+            }
+        }
+        return dot.append("}\n").toString();
+    }
+
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{");
+        GraphFormat.field(json, "operationId", operationId).append(',');
+        json.append("\"count\":").append(count).append(",\"branches\":[");
+        for (int i = 0; i < branches.size(); i++) {
+            BranchStats branch = branches.get(i);
+            json.append(i > 0 ? ",{" : "{");
+            GraphFormat.field(json, "branchId", branch.getBranchId()).append(",\"dependencies\":");
+            GraphFormat.array(json, branch.getDependencies());
+            json.append(",\"level\":").append(branch.getLevel())
+                    .append(",\"criticalCount\":").append(branch.getCriticalCount())
+                    .append(",\"criticalRate\":").append(String.format(Locale.ROOT, "%.4f", branch.getCriticalRate()))
+                    .append(",\"meanLatencyMillis\":").append(GraphFormat.millis(branch.getMeanLatencyNanos()))
+                    .append(",\"meanSlackMillis\":").append(GraphFormat.millis(branch.getMeanSlackNanos()))
+                    .append('}');
+        }
+        return json.append("]}").toString();
+    }
+}
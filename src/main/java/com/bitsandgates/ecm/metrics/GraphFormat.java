@@ -0,0 +1,91 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+// DOT and JSON writing shared by CriticalPath and CriticalPathReport
+final class GraphFormat {
+
+    private GraphFormat() {
+    }
+
+    static StringBuilder digraph(String name) {
+        return new StringBuilder("digraph ").append(quote(name)).append(" {\n  rankdir=LR;\n  node [shape=box];\n");
+    }
+
+    // labelled with the id and a line for each of lines
+    static void node(StringBuilder dot, String id, boolean highlight, String... lines) {
+        String label = quote(id);
+        for (String line : lines) {
+            label = label.substring(0, label.length() - 1) + "\\n" + quote(line).substring(1);
+        }
+        dot.append("  ").append(quote(id)).append(" [label=").append(label);
+        dot.append(highlight ? ", color=red, penwidth=2];\n" : "];\n");
+    }
+
+    // one rank for each level that has more than one branch, so that branches that can run together line up
+    static <T> void ranks(StringBuilder dot, List<T> branches, Function<T, String> id, ToIntFunction<T> level) {
+        Map<Integer, List<String>> levels = new TreeMap<>();
+        for (T branch : branches) {
+            levels.computeIfAbsent(level.applyAsInt(branch), __ -> new ArrayList<>()).add(id.apply(branch));
+        }
+        for (List<String> ids : levels.values()) {
+            if (ids.size() > 1) {
+                dot.append("  { rank=same;");
+                for (String branchId : ids) {
+                    dot.append(' ').append(quote(branchId)).append(';');
+                }
+                dot.append(" }\n");
+            }
+        }
+    }
+
+    static void edge(StringBuilder dot, String from, String to, boolean highlight) {
+        dot.append("  ").append(quote(from)).append(" -> ").append(quote(to));
+        dot.append(highlight ? " [color=red, penwidth=2];\n" : ";\n");
+    }
+
+    static StringBuilder field(StringBuilder json, String name, String value) {
+        return json.append(quote(name)).append(':').append(value != null ? quote(value) : "null");
+    }
+
+    static StringBuilder array(StringBuilder json, List<String> values) {
+        json.append('[');
+        for (int i = 0; i < values.size(); i++) {
+            json.append(i > 0 ? "," : "").append(quote(values.get(i)));
+        }
+        return json.append(']');
+    }
+
+    static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    // valid as a DOT id and as a JSON string
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
@@ -0,0 +1,80 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import lombok.Value;
+
+// Default ServiceListener: a LatencyHistogram in nanoseconds of each wait, queue and duration, per stage, operation id
+// and id. Histograms are created on first use; after that recording does not lock.
+public class HistogramRecorder implements ServiceListener {
+
+    public enum Metric {
+        WAIT, QUEUE, DURATION
+    }
+
+    @Value
+    public static class Key {
+
+        Stage stage;
+
+        Metric metric;
+
+        String operationId;
+
+        String id;
+    }
+
+    private final Map<Key, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    @Override
+    public void submitted(Stage stage, String operationId, String id, long waitNanos) {
+        histogram(stage, Metric.WAIT, operationId, id).record(waitNanos);
+    }
+
+    @Override
+    public void started(Stage stage, String operationId, String id, long queueNanos) {
+        histogram(stage, Metric.QUEUE, operationId, id).record(queueNanos);
+    }
+
+    @Override
+    public void finished(Stage stage, String operationId, String id, long durationNanos, boolean error) {
+        histogram(stage, Metric.DURATION, operationId, id).record(durationNanos);
+    }
+
+    // null if nothing was recorded for the key
+    public LatencyHistogram getHistogram(Stage stage, Metric metric, String operationId, String id) {
+        return histograms.get(new Key(stage, metric, operationId, id));
+    }
+
+    public Map<Key, LatencySnapshot> report() {
+        Map<Key, LatencySnapshot> report = new ConcurrentHashMap<>();
+        histograms.forEach((key, histogram) -> report.put(key, histogram.snapshot()));
+        return report;
+    }
+
+    // one line per histogram: stage, metric, operation id, id, count and p50/p99/p999/max in microseconds
+    public List<String> format() {
+        List<String> lines = new ArrayList<>();
+        report().forEach((key, snapshot) -> lines.add(String.format("%s %s [%s] [%s] count=%d p50=%dus p99=%dus p999=%dus max=%dus",
+                key.getStage(), key.getMetric(), key.getOperationId(), key.getId(), snapshot.getCount(), snapshot.getP50() / 1000,
+                snapshot.getP99() / 1000, snapshot.getP999() / 1000, snapshot.getMax() / 1000)));
+        return lines;
+    }
+
+    private LatencyHistogram histogram(Stage stage, Metric metric, String operationId, String id) {
+        Key key = new Key(stage, metric, operationId, id);
+        LatencyHistogram histogram = histograms.get(key);
+        return histogram != null ? histogram : histograms.computeIfAbsent(key, k -> new LatencyHistogram());
+    }
+}
@@ -0,0 +1,49 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import com.bitsandgates.ecm.service.Service;
+
+import lombok.RequiredArgsConstructor;
+
+// Exposes Service.getInFlightOperations over JMX, each attribute read takes a new snapshot
+@RequiredArgsConstructor
+public class InFlightOperations implements InFlightOperationsMBean {
+
+    private final Service service;
+
+    // registers with the platform MBean server as com.bitsandgates.ecm:type=InFlightOperations,name="<name>"
+    public static ObjectName register(Service service, String name) throws JMException {
+        ObjectName objectName = new ObjectName("com.bitsandgates.ecm:type=InFlightOperations,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new InFlightOperations(service), objectName);
+        return objectName;
+    }
+
+    @Override
+    public int getCount() {
+        return service.getInFlightOperations().size();
+    }
+
+    @Override
+    public long getLongestElapsedMillis() {
+        List<OperationSnapshot> operations = service.getInFlightOperations();
+        return operations.isEmpty() ? 0 : operations.get(0).getElapsedMillis();
+    }
+
+    @Override
+    public String[] getOperations() {
+        return service.getInFlightOperations().stream().map(OperationSnapshot::format).toArray(String[]::new);
+    }
+}
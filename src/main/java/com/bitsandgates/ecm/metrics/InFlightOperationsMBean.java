@@ -0,0 +1,19 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.metrics;
+
+public interface InFlightOperationsMBean {
+
+    int getCount();
+
+    long getLongestElapsedMillis();
+
+    // one line per try in flight, longest running first, see OperationSnapshot.format
+    String[] getOperations();
+}
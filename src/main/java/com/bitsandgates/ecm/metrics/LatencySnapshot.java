@@ -0,0 +1,26 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.metrics;
+
+import lombok.Value;
+
+// Percentiles of a LatencyHistogram, in the unit values were recorded in
+@Value
+public class LatencySnapshot {
+
+    long count;
+
+    long p50;
+
+    long p99;
+
+    long p999;
+
+    long max;
+}
@@ -0,0 +1,32 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.metrics;
+
+import lombok.Value;
+
+// Progress of a try of a loop branch
+@Value
+public class LoopSnapshot {
+
+    // number of elements, -1 when the source does not know
+    int size;
+
+    // by this try
+    long completed;
+
+    int running;
+
+    // submitted to the executor but not started
+    int queued;
+
+    int concurrency;
+
+    // the loop is at capacity and waits to submit the next element
+    boolean blocked;
+}
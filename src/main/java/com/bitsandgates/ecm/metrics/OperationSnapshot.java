@@ -0,0 +1,57 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.metrics;
+
+import java.util.List;
+
+import lombok.Value;
+
+// A try of an operation, or of a loop branch, that was in flight when the snapshot was taken
+@Value
+public class OperationSnapshot {
+
+    String traceId;
+
+    String operationId;
+
+    // set for a try of a loop branch, which runs within the branch that called it
+    String loopBranchId;
+
+    int retryCount;
+
+    long elapsedMillis;
+
+    // empty for a loop
+    List<BranchSnapshot> branches;
+
+    // null unless this is a loop
+    LoopSnapshot loop;
+
+    // e.g. [trace] com.example.Op retry 0 1200 ms: branch1 RUNNING, branch2 PENDING on [branch1]
+    public String format() {
+        StringBuilder line = new StringBuilder(String.format("[%s] %s", traceId, operationId));
+        if (loopBranchId != null) {
+            line.append(" loop ").append(loopBranchId);
+        }
+        line.append(String.format(" retry %d %d ms:", retryCount, elapsedMillis));
+        if (loop != null) {
+            line.append(String.format(" %d of %s completed, %d running, %d queued, concurrency %d%s", loop.getCompleted(),
+                    loop.getSize() >= 0 ? String.valueOf(loop.getSize()) : "?", loop.getRunning(), loop.getQueued(),
+                    loop.getConcurrency(), loop.isBlocked() ? ", blocked" : ""));
+        }
+        for (int i = 0; i < branches.size(); i++) {
+            BranchSnapshot branch = branches.get(i);
+            line.append(i > 0 ? ", " : " ").append(branch.getBranchId()).append(' ').append(branch.getState());
+            if (!branch.getWaitingFor().isEmpty()) {
+                line.append(" on ").append(branch.getWaitingFor());
+            }
+        }
+        return line.toString();
+    }
+}
@@ -0,0 +1,55 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.metrics;
+
+// Notified by the service as it runs operations, to record latencies. Implementations are called from branch threads,
+// must be thread-safe and should not block. With ServiceListener.none() the service does not read the clock at all.
+//
+// submitted: the work was handed to an executor, waitNanos is what it waited for before that: its dependencies for a
+//            branch (or its retry delay for an in place retry), the retry delay for a try
+// started:   the work started, queueNanos is the time it spent in the executor queue
+// finished:  the work finished, error is set if it produced an error or a retry
+//
+// A loop iteration is only started and finished, its queue time includes the wait for a free slot of the loop.
+// AFTER_BRANCHES runs on the thread that completed the last branch, so it is only started and finished too. The id is
+// the branch id for BRANCH and LOOP_ITERATION, the operation id for AFTER_BRANCHES and the operation id or loop branch
+// id for TRY.
+public interface ServiceListener {
+
+    enum Stage {
+        BRANCH, LOOP_ITERATION, AFTER_BRANCHES, TRY
+    }
+
+    void submitted(Stage stage, String operationId, String id, long waitNanos);
+
+    void started(Stage stage, String operationId, String id, long queueNanos);
+
+    void finished(Stage stage, String operationId, String id, long durationNanos, boolean error);
+
+    static ServiceListener none() {
+        return None.INSTANCE;
+    }
+
+    class None implements ServiceListener {
+
+        private static final None INSTANCE = new None();
+
+        @Override
+        public void submitted(Stage stage, String operationId, String id, long waitNanos) {
+        }
+
+        @Override
+        public void started(Stage stage, String operationId, String id, long queueNanos) {
+        }
+
+        @Override
+        public void finished(Stage stage, String operationId, String id, long durationNanos, boolean error) {
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.metrics;
+
+import java.util.List;
+
+import lombok.Value;
+
+// A branch that was still running past its threshold, with the stack of its thread sampled at that point
+@Value
+public class SlowBranchEvent {
+
+    String traceId;
+
+    String operationId;
+
+    String branchId;
+
+    String threadName;
+
+    long elapsedMillis;
+
+    long thresholdMillis;
+
+    // innermost frame first, truncated to the watchdog's maxFrames
+    List<StackTraceElement> stackTrace;
+
+    public String format() {
+        StringBuilder sb = new StringBuilder(String.format(
+                "Branch [%s] of operation [%s] trace [%s] running for [%d] ms, threshold [%d] ms, on thread [%s]",
+                branchId, operationId, traceId, elapsedMillis, thresholdMillis, threadName));
+        stackTrace.forEach(frame -> sb.append(System.lineSeparator()).append("\tat ").append(frame));
+        return sb.toString();
+    }
+}
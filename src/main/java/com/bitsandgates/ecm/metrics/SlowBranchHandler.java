@@ -0,0 +1,34 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.metrics;
+
+import lombok.extern.slf4j.Slf4j;
+
+// Called on the watchdog thread once for each branch run that exceeds its threshold, it should not block
+@FunctionalInterface
+public interface SlowBranchHandler {
+
+    void slow(SlowBranchEvent event);
+
+    // logs a warning with the stack sample
+    static SlowBranchHandler log() {
+        return Log.INSTANCE;
+    }
+
+    @Slf4j
+    class Log implements SlowBranchHandler {
+
+        private static final Log INSTANCE = new Log();
+
+        @Override
+        public void slow(SlowBranchEvent event) {
+            log.warn(event.format());
+        }
+    }
+}
@@ -8,18 +8,19 @@ LICENSE file in the root directory of this source tree.
 
 package com.bitsandgates.ecm.service;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.List;
 
 import com.bitsandgates.ecm.domain.BranchOutput;
 import com.bitsandgates.ecm.domain.NonRecoverableBranchException;
+import com.bitsandgates.ecm.service.Invokers.BranchMethod;
+import com.bitsandgates.ecm.service.Invokers.ChunkMethod;
+import com.bitsandgates.ecm.service.Invokers.LoopBranchMethod;
 
+import lombok.Builder;
 import lombok.Getter;
-import lombok.RequiredArgsConstructor;
-import lombok.SneakyThrows;
 
-@RequiredArgsConstructor
+@Builder
 class Branch {
 
     @Getter
@@ -27,7 +28,11 @@ class Branch {
 
     private final Object impl;
 
-    private final Method exe;
+    private final BranchMethod exe;
+
+    private final LoopBranchMethod loopExe;
+
+    private final ChunkMethod chunkExe;
 
     @Getter
     private final List<String> dependencies;
@@ -35,25 +40,82 @@ class Branch {
     @Getter
     private final boolean deterministic;
 
-    @SneakyThrows
+    @Getter
+    private final int concurrency;
+
+    @Getter
+    private final boolean adaptiveConcurrency;
+
+    @Getter
+    private final int chunkSize;
+
+    // null defers to the service retry policy
+    @Getter
+    private final RetryPolicy retryPolicy;
+
+    // 0 for none
+    @Getter
+    private final long timeoutMillis;
+
+    // null if the branch is not hedged
+    @Getter
+    private final Hedge hedge;
+
+    // 0 defers to the watchdog
+    @Getter
+    private final long slowAfterMillis;
+
+    // null unless the watchdog threshold follows a percentile of recent latencies
+    @Getter
+    private final LatencyWindow slowLatencies;
+
     public BranchOutput<?> run(BranchContext context) {
         try {
-            return (BranchOutput<?>) exe.invoke(impl, context);
-        } catch (InvocationTargetException e) {
-            Throwable t = e.getTargetException();
+            return exe.invoke(impl, context);
+        } catch (Throwable t) {
             boolean canRetry = t instanceof NonRecoverableBranchException == false;
             return context.outputBuilder(Void.class, t, canRetry).build();
         }
     }
 
-    @SneakyThrows
     public BranchOutput<?> run(BranchContext context, Object loopData, Object element, int index) {
         try {
-            return (BranchOutput<?>) exe.invoke(impl, context, loopData, element, index);
-        } catch (InvocationTargetException e) {
-            Throwable t = e.getTargetException();
+            return loopExe.invoke(impl, context, loopData, element, index);
+        } catch (Throwable t) {
             boolean canRetry = t instanceof NonRecoverableBranchException == false;
             return context.outputBuilder(Void.class, t, canRetry).build();
         }
     }
+
+    // Returns exactly one output per element of the chunk, in index order. Elements the branch did not return an output
+    // for are reported as retryable errors.
+    public List<BranchOutput<?>> run(BranchContext context, Object loopData, List<?> chunk, int start) {
+        List<BranchOutput<?>> outputs = new ArrayList<>(chunk.size());
+        try {
+            List<BranchOutput<?>> returned = chunkExe.invoke(impl, context, loopData, chunk, start);
+            BranchOutput<?>[] byIndex = new BranchOutput<?>[chunk.size()];
+            if (returned != null) {
+                for (BranchOutput<?> output : returned) {
+                    int position = output.getIndex() - start;
+                    if (position >= 0 && position < byIndex.length) {
+                        byIndex[position] = output;
+                    }
+                }
+            }
+            for (int i = 0; i < byIndex.length; i++) {
+                outputs.add(byIndex[i] != null ? byIndex[i]
+                        : context.outputBuilder(Void.class,
+                                new IllegalStateException(String.format("No output for element [%d] of chunk", start + i)), true)
+                                .index(start + i)
+                                .build());
+            }
+        } catch (Throwable t) {
+            boolean canRetry = t instanceof NonRecoverableBranchException == false;
+            outputs.clear();
+            for (int i = 0; i < chunk.size(); i++) {
+                outputs.add(context.outputBuilder(Void.class, t, canRetry).index(start + i).build());
+            }
+        }
+        return outputs;
+    }
 }
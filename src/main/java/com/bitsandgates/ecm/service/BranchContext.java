@@ -13,9 +13,13 @@ import static java.util.stream.Collectors.toMap;
 
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 import com.bitsandgates.ecm.domain.BranchError;
 import com.bitsandgates.ecm.domain.BranchInput;
@@ -25,6 +29,7 @@ import com.bitsandgates.ecm.domain.Response;
 import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
+import lombok.Setter;
 import lombok.SneakyThrows;
 
 @Getter
@@ -43,6 +48,21 @@ public class BranchContext {
 
     @Getter(AccessLevel.NONE)
     private Map<String, BranchOutput<?>> dependencies = new HashMap<>();
+
+    // in place retries of the branch within the current try of the operation
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.PACKAGE)
+    private volatile int attempt;
+
+    // epoch millis the branch times out at, 0 for none
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.PACKAGE)
+    private volatile long deadlineMillis;
+
+    // System.nanoTime() the branch was last scheduled or submitted at, only kept with a ServiceListener
+    @Getter(AccessLevel.PACKAGE)
+    @Setter(AccessLevel.PACKAGE)
+    private volatile long submittedNanos;
     
     public String getTraceId() {
         return operationContext.getTraceId();
@@ -56,13 +76,18 @@ public class BranchContext {
         return BranchOutput.<T>builder().branchId(branchId).index(index);
     }
 
+    // for chunked loop branches, which return an output for each element of the chunk
+    public <T> BranchOutput.BranchOutputBuilder<T> outputBuilder(Class<T> clazz, int index) {
+        return BranchOutput.<T>builder().branchId(branchId).index(index);
+    }
+
     public <T> BranchOutput.BranchOutputBuilder<T> outputBuilder(Class<T> clazz, Throwable e, boolean canRetry) {
         return BranchOutput.<T>builder()
                 .branchId(branchId)
                 .index(index)
                 .error(BranchError.builder()
                         .errorMessage(e.getMessage())
-                        .errorTrace(Utils.traceToSring(e))
+                        .errorTraceSupplier(ErrorTraces.capture(e, operationContext.getServiceConfig().getTraceMode()))
                         .canRetry(canRetry)
                         .build());
     }
@@ -72,16 +97,26 @@ public class BranchContext {
             throw new IllegalArgumentException(String.format("Output does not contain error [%s]", outputWithError));
         }
         BranchError error = outputWithError.getError();
+        // the trace of the dependency is shared rather than copied into the message of every dependant
         return BranchOutput.<T>builder()
                 .branchId(branchId)
                 .index(index)
                 .error(BranchError.builder()
                         .errorMessage(String.format("A branch this branch dependens on [%s] did not complete because of [%s]",
-                                outputWithError.getBranchId(), error))
+                                outputWithError.getBranchId(), error.getErrorMessage()))
+                        .errorTraceSupplier(error::getErrorTrace)
                         .canRetry(error.canRetry())
                         .build());
     }
 
+    // for a second invocation of the branch, see Hedge
+    BranchContext copy() {
+        BranchContext copy = new BranchContext(branchId, operationContext, index, dependencyFutures);
+        copy.attempt = attempt;
+        copy.deadlineMillis = deadlineMillis;
+        return copy;
+    }
+
     @SneakyThrows
     BranchContext waitForDependencies() {
         if (!dependencyFutures.isEmpty()) {
@@ -112,7 +147,18 @@ public class BranchContext {
     }
 
     public int getRetryCount() {
-        return operationContext.getRetryCount();
+        return operationContext.getRetryCount() + attempt;
+    }
+
+    // time left before the branch times out or the request deadline expires, whichever is first; calls made by the
+    // branch can use it as their own timeout. Long.MAX_VALUE if there is neither.
+    public long getRemainingMillis() {
+        long deadline = earliest(deadlineMillis, operationContext.getRequest().getDeadlineMillis());
+        return deadline > 0 ? Math.max(0, deadline - System.currentTimeMillis()) : Long.MAX_VALUE;
+    }
+
+    private static long earliest(long deadline, long other) {
+        return deadline > 0 && other > 0 ? Math.min(deadline, other) : Math.max(deadline, other);
     }
 
     public Response loopBranch(String branchId, Object loopData, Collection<?> collection) {
@@ -122,4 +168,35 @@ public class BranchContext {
     public Response loopBranch(String branchId, Object loopData, Collection<?> collection, int concurrency) {
         return operationContext.loopBranch(branchId, loopData, collection, concurrency);
     }
+
+    // Streaming variants for sources that should not be materialised (cursors, file lines). Elements are pulled as
+    // iterations complete and only elements that need retrying are kept, so the source is consumed exactly once.
+    public Response loopBranch(String branchId, Object loopData, Iterator<?> iterator) {
+        return loopBranch(branchId, loopData, iterator, 0);
+    }
+
+    public Response loopBranch(String branchId, Object loopData, Iterator<?> iterator, int concurrency) {
+        return operationContext.loopBranch(branchId, loopData, iterator, concurrency, null);
+    }
+
+    public Response loopBranch(String branchId, Object loopData, Stream<?> stream) {
+        return loopBranch(branchId, loopData, stream.iterator(), 0);
+    }
+
+    public Response loopBranch(String branchId, Object loopData, Stream<?> stream, int concurrency) {
+        return loopBranch(branchId, loopData, stream.iterator(), concurrency);
+    }
+
+    // Aggregating variants for result sets that do not fit in memory. Outputs without an error are passed to the consumer
+    // as iterations complete, one at a time, and are not kept; the response carries only the outputs with an error and,
+    // if any can be retried, a Retry of them as usual. Memory is bounded by the loop concurrency and the failed elements.
+    public Response loopBranch(String branchId, Object loopData, Iterator<?> iterator, int concurrency,
+            Consumer<BranchOutput<?>> consumer) {
+        return operationContext.loopBranch(branchId, loopData, iterator, concurrency, Objects.requireNonNull(consumer));
+    }
+
+    public Response loopBranch(String branchId, Object loopData, Stream<?> stream, int concurrency,
+            Consumer<BranchOutput<?>> consumer) {
+        return loopBranch(branchId, loopData, stream.iterator(), concurrency, consumer);
+    }
 }
@@ -0,0 +1,145 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.service;
+
+import static java.util.Collections.unmodifiableList;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.bitsandgates.ecm.domain.OperationValidationException;
+
+class BranchGraph {
+
+    private final List<Branch> branches;
+
+    private final Map<String, Integer> positions;
+
+    private final int[][] dependencies;
+
+    private final int[][] dependants;
+
+    private final int[] levels;
+
+    private BranchGraph(List<Branch> branches, int[][] dependencies, int[][] dependants, int[] levels) {
+        this.branches = unmodifiableList(branches);
+        this.dependencies = dependencies;
+        this.dependants = dependants;
+        this.levels = levels;
+        this.positions = new HashMap<>();
+        for (int i = 0; i < branches.size(); i++) {
+            positions.put(branches.get(i).getId(), i);
+        }
+    }
+
+    static BranchGraph create(List<Branch> branches) {
+        Map<String, Integer> ids = new HashMap<>();
+        for (int i = 0; i < branches.size(); i++) {
+            if (ids.put(branches.get(i).getId(), i) != null) {
+                throw new OperationValidationException(String.format("Duplicate branchId [%s]", branches.get(i).getId()));
+            }
+        }
+
+        int size = branches.size();
+        int[] inDegree = new int[size];
+        List<List<Integer>> edges = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            edges.add(new ArrayList<>());
+        }
+        for (int i = 0; i < size; i++) {
+            Branch branch = branches.get(i);
+            for (String dependency : branch.getDependencies()) {
+                Integer from = ids.get(dependency);
+                if (from == null) {
+                    throw new OperationValidationException(
+                            String.format("Unknown dependency [%s] declared by branch [%s]", dependency, branch.getId()));
+                }
+                edges.get(from).add(i);
+                inDegree[i]++;
+            }
+        }
+
+        // Kahn's algorithm, levels are the length of the longest dependency chain leading to a branch
+        int[] order = new int[size];
+        int[] levelByOriginal = new int[size];
+        Deque<Integer> ready = new ArrayDeque<>();
+        for (int i = 0; i < size; i++) {
+            if (inDegree[i] == 0) {
+                ready.add(i);
+            }
+        }
+        int sorted = 0;
+        while (!ready.isEmpty()) {
+            int current = ready.poll();
+            order[sorted++] = current;
+            for (int next : edges.get(current)) {
+                levelByOriginal[next] = Math.max(levelByOriginal[next], levelByOriginal[current] + 1);
+                if (--inDegree[next] == 0) {
+                    ready.add(next);
+                }
+            }
+        }
+        if (sorted != size) {
+            List<String> cyclic = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                if (inDegree[i] > 0) {
+                    cyclic.add(branches.get(i).getId());
+                }
+            }
+            throw new OperationValidationException(String.format("Cyclic dependency between branches %s", cyclic));
+        }
+
+        int[] positionByOriginal = new int[size];
+        List<Branch> sortedBranches = new ArrayList<>(size);
+        int[] levels = new int[size];
+        for (int i = 0; i < size; i++) {
+            positionByOriginal[order[i]] = i;
+            sortedBranches.add(branches.get(order[i]));
+            levels[i] = levelByOriginal[order[i]];
+        }
+        int[][] dependencies = new int[size][];
+        int[][] dependants = new int[size][];
+        for (int i = 0; i < size; i++) {
+            Branch branch = sortedBranches.get(i);
+            dependencies[i] = branch.getDependencies().stream().mapToInt(id -> positionByOriginal[ids.get(id)]).toArray();
+            dependants[i] = edges.get(order[i]).stream().mapToInt(next -> positionByOriginal[next]).sorted().toArray();
+        }
+        return new BranchGraph(sortedBranches, dependencies, dependants, levels);
+    }
+
+    int size() {
+        return branches.size();
+    }
+
+    Branch get(int position) {
+        return branches.get(position);
+    }
+
+    int positionOf(String branchId) {
+        Integer position = positions.get(branchId);
+        return position != null ? position : -1;
+    }
+
+    int[] getDependencies(int position) {
+        return dependencies[position];
+    }
+
+    int[] getDependants(int position) {
+        return dependants[position];
+    }
+
+    // branches of the same level do not depend on each other
+    int getLevel(int position) {
+        return levels[position];
+    }
+}
@@ -8,24 +8,48 @@ LICENSE file in the root directory of this source tree.
 
 package com.bitsandgates.ecm.service;
 
+import static java.util.Collections.emptyList;
+import static java.util.Collections.unmodifiableList;
+
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.bitsandgates.ecm.domain.BranchOutput;
 
+// Outputs of an operation in the order they were published. Branches add their output from whichever thread completes
+// them; retries are counted as outputs are added and the list handed out is rebuilt only after new outputs arrive.
 public class BranchOutputs {
 
-    private List<BranchOutput<?>> outputs = new ArrayList<>();
+    private final Queue<BranchOutput<?>> outputs = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final AtomicInteger retries = new AtomicInteger();
+
+    private volatile List<BranchOutput<?>> snapshot = emptyList();
 
     boolean isRetry() {
-        return outputs.stream().filter(o -> o.isRetry()).findFirst().map(__ -> true).orElse(false);
+        return retries.get() > 0;
     }
 
     void addOutput(BranchOutput<?> output) {
         outputs.add(output);
+        if (output.isRetry()) {
+            retries.incrementAndGet();
+        }
+        size.incrementAndGet();
     }
 
+    // an output being added concurrently may or may not be included, it is picked up by the next call
     List<BranchOutput<?>> getAll() {
-        return new ArrayList<>(outputs);
+        List<BranchOutput<?>> all = snapshot;
+        if (all.size() != size.get()) {
+            all = unmodifiableList(new ArrayList<>(outputs));
+            snapshot = all;
+        }
+        return all;
     }
 }
@@ -0,0 +1,166 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.bitsandgates.ecm.domain.BranchError;
+import com.bitsandgates.ecm.domain.BranchOutput;
+
+// One execution of an operation whose branches can be cut short: by @FailFast, a branch timeout or the request deadline.
+// A result is claimed once, by the branch or by whatever cuts it short, and only the claimed output is published. A
+// branch that is cut short while it runs is interrupted; one that has not started is never invoked.
+class Cancellation {
+
+    private final OperationContext context;
+
+    private final BranchGraph graph;
+
+    // in graph order
+    private final List<CompletableFuture<BranchOutput<?>>> results;
+
+    private final boolean failFast;
+
+    private final Set<CompletableFuture<BranchOutput<?>>> claimed = ConcurrentHashMap.newKeySet();
+
+    private final AtomicBoolean failed = new AtomicBoolean();
+
+    // thread to branch id, guarded by running so that no branch is interrupted after it has stopped running; a hedged
+    // branch runs on two threads
+    private final Map<Thread, String> running = new HashMap<>();
+
+    private final Set<Thread> interrupted = new HashSet<>();
+
+    private boolean closed;
+
+    Cancellation(OperationContext context, BranchGraph graph, List<CompletableFuture<BranchOutput<?>>> results, boolean failFast) {
+        this.context = context;
+        this.graph = graph;
+        this.results = results;
+        this.failFast = failFast;
+    }
+
+    void complete(CompletableFuture<BranchOutput<?>> result, BranchOutput<?> output) {
+        if (!claimed.add(result)) {
+            return;
+        }
+        if (!failFast || !output.isError() || output.isRetry() || !failed.compareAndSet(false, true)) {
+            publish(result, output);
+            return;
+        }
+        // the other results are claimed before this one completes, so that none of its dependants can start
+        List<Integer> positions = claimAll();
+        publish(result, output);
+        publishAll(positions, BranchError.builder()
+                .errorMessage(String.format("Branch was cancelled because branch [%s] failed with [%s]", output.getBranchId(),
+                        output.getError().getErrorMessage()))
+                .canRetry(false)
+                .build());
+    }
+
+    // the branch ran out of time, it can be retried
+    void timeout(CompletableFuture<BranchOutput<?>> result, String branchId, long timeoutMillis) {
+        if (!claimed.add(result)) {
+            return;
+        }
+        synchronized (running) {
+            interrupt(branchId);
+        }
+        publish(result, BranchOutput.builder()
+                .branchId(branchId)
+                .error(BranchError.builder()
+                        .errorMessage(String.format("Branch [%s] timed out after [%d] ms", branchId, timeoutMillis))
+                        .canRetry(true)
+                        .build())
+                .build());
+    }
+
+    // the operation ran out of time, the branches that did not complete can be retried
+    void expire() {
+        completeAll(BranchError.builder()
+                .errorMessage(String.format("Operation [%s] deadline expired", context.getOperationId()))
+                .canRetry(true)
+                .build());
+    }
+
+    // false if the result was already claimed and the branch must not run
+    boolean started(CompletableFuture<BranchOutput<?>> result, String branchId) {
+        synchronized (running) {
+            if (closed || claimed.contains(result)) {
+                return false;
+            }
+            running.put(Thread.currentThread(), branchId);
+            return true;
+        }
+    }
+
+    void stopped() {
+        boolean wasInterrupted;
+        synchronized (running) {
+            running.remove(Thread.currentThread());
+            wasInterrupted = interrupted.remove(Thread.currentThread());
+        }
+        if (wasInterrupted) {
+            // the interrupt was meant for the branch, not for whatever the thread runs next
+            Thread.interrupted();
+        }
+    }
+
+    private void completeAll(BranchError error) {
+        publishAll(claimAll(), error);
+    }
+
+    // positions of the results that were not claimed yet, running branches are interrupted
+    private List<Integer> claimAll() {
+        List<Integer> positions = new ArrayList<>();
+        for (int i = 0; i < results.size(); i++) {
+            if (claimed.add(results.get(i))) {
+                positions.add(i);
+            }
+        }
+        synchronized (running) {
+            closed = true;
+            running.keySet().forEach(this::interrupt);
+        }
+        return positions;
+    }
+
+    private void publishAll(List<Integer> positions, BranchError error) {
+        for (int position : positions) {
+            publish(results.get(position), BranchOutput.builder().branchId(graph.get(position).getId()).error(error).build());
+        }
+    }
+
+    private void interrupt(String branchId) {
+        running.forEach((thread, id) -> {
+            if (id.equals(branchId)) {
+                interrupt(thread);
+            }
+        });
+    }
+
+    private void interrupt(Thread thread) {
+        interrupted.add(thread);
+        thread.interrupt();
+    }
+
+    // the output is in the context before the result completes, so it is there once all the results have completed
+    private void publish(CompletableFuture<BranchOutput<?>> result, BranchOutput<?> output) {
+        context.addBranchOutput(output);
+        result.complete(output);
+    }
+}
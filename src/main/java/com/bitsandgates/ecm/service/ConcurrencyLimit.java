@@ -0,0 +1,93 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.service;
+
+import lombok.RequiredArgsConstructor;
+
+public interface ConcurrencyLimit {
+
+    int getLimit();
+
+    void onSample(long latencyNanos, boolean success);
+
+    default boolean isAdaptive() {
+        return false;
+    }
+
+    static ConcurrencyLimit fixed(int limit) {
+        return new Fixed(limit);
+    }
+
+    static ConcurrencyLimit aimd(int initial, int min, int max) {
+        return new Aimd(initial, min, max);
+    }
+
+    @RequiredArgsConstructor
+    class Fixed implements ConcurrencyLimit {
+
+        private final int limit;
+
+        @Override
+        public int getLimit() {
+            return limit;
+        }
+
+        @Override
+        public void onSample(long latencyNanos, boolean success) {
+        }
+    }
+
+    // Additive increase, multiplicative decrease. The limit grows by one for every window of successful samples and
+    // is cut back on errors or when latency rises well above its moving average.
+    class Aimd implements ConcurrencyLimit {
+
+        private static final double BACKOFF_RATIO = 0.9;
+
+        private static final double LATENCY_TOLERANCE = 2.0;
+
+        private static final double SMOOTHING = 0.1;
+
+        private final int min;
+
+        private final int max;
+
+        private double limit;
+
+        private double averageLatency;
+
+        Aimd(int initial, int min, int max) {
+            this.min = Math.max(1, min);
+            this.max = Math.max(this.min, max);
+            this.limit = Math.min(this.max, Math.max(this.min, initial));
+        }
+
+        @Override
+        public synchronized int getLimit() {
+            return (int) limit;
+        }
+
+        @Override
+        public synchronized void onSample(long latencyNanos, boolean success) {
+            boolean slow = averageLatency > 0 && latencyNanos > averageLatency * LATENCY_TOLERANCE;
+            if (!success || slow) {
+                limit = Math.max(min, limit * BACKOFF_RATIO);
+            } else if (limit < max) {
+                limit = Math.min(max, limit + 1 / limit);
+            }
+            if (success) {
+                averageLatency = averageLatency == 0 ? latencyNanos : averageLatency + SMOOTHING * (latencyNanos - averageLatency);
+            }
+        }
+
+        @Override
+        public boolean isAdaptive() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.bitsandgates.ecm.metrics.BranchTiming;
+import com.bitsandgates.ecm.metrics.CriticalPath;
+import com.bitsandgates.ecm.metrics.CriticalPathReport;
+import com.bitsandgates.ecm.metrics.CriticalPathReport.BranchStats;
+
+// Counters of the critical paths of an operation since the service started, by position of the branch in the graph
+class CriticalPathStats {
+
+    private final BranchGraph graph;
+
+    private final LongAdder count = new LongAdder();
+
+    private final AtomicLongArray critical;
+
+    private final AtomicLongArray latencies;
+
+    private final AtomicLongArray slacks;
+
+    CriticalPathStats(BranchGraph graph) {
+        this.graph = graph;
+        this.critical = new AtomicLongArray(graph.size());
+        this.latencies = new AtomicLongArray(graph.size());
+        this.slacks = new AtomicLongArray(graph.size());
+    }
+
+    // the branches of a critical path are in the same order as the graph
+    void record(CriticalPath path) {
+        List<BranchTiming> branches = path.getBranches();
+        for (int i = 0; i < branches.size(); i++) {
+            BranchTiming branch = branches.get(i);
+            if (branch.isCritical()) {
+                critical.incrementAndGet(i);
+            }
+            latencies.addAndGet(i, branch.getLatencyNanos());
+            slacks.addAndGet(i, branch.getSlackNanos());
+        }
+        count.increment();
+    }
+
+    CriticalPathReport report(String operationId) {
+        long total = count.sum();
+        List<BranchStats> branches = new ArrayList<>(graph.size());
+        for (int i = 0; i < graph.size(); i++) {
+            List<String> dependencies = new ArrayList<>();
+            for (int dependency : graph.getDependencies(i)) {
+                dependencies.add(graph.get(dependency).getId());
+            }
+            branches.add(new BranchStats(graph.get(i).getId(), dependencies, graph.getLevel(i), critical.get(i),
+                    mean(latencies.get(i), total), mean(slacks.get(i), total), total > 0 ? (double) critical.get(i) / total : 0));
+        }
+        branches.sort(Comparator.comparingLong(BranchStats::getCriticalCount).reversed());
+        return new CriticalPathReport(operationId, total, branches);
+    }
+
+    private static long mean(long sum, long count) {
+        return count > 0 ? sum / count : 0;
+    }
+}
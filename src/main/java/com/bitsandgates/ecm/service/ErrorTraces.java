@@ -0,0 +1,95 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.service;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import lombok.experimental.UtilityClass;
+
+// Captures traces for BranchError without rendering them; see TraceMode
+@UtilityClass
+class ErrorTraces {
+
+    static final int TRUNCATED_FRAMES = 8;
+
+    // distinct failures are few, the bound only protects against exceptions with generated frames
+    private static final int MAX_FINGERPRINTS = 1024;
+
+    private static final Map<List<Object>, String> truncated = new ConcurrentHashMap<>();
+
+    static Supplier<String> capture(Throwable e, TraceMode mode) {
+        switch (mode) {
+        case FULL:
+            return () -> full(e);
+        case TRUNCATED:
+            return () -> truncated(e);
+        default:
+            return null;
+        }
+    }
+
+    static String full(Throwable e) {
+        StringWriter sw = new StringWriter();
+        e.printStackTrace(new PrintWriter(sw));
+        return sw.toString();
+    }
+
+    static String truncated(Throwable e) {
+        List<Object> fingerprint = fingerprint(e);
+        String trace = truncated.get(fingerprint);
+        if (trace == null) {
+            trace = render(fingerprint);
+            if (truncated.size() < MAX_FINGERPRINTS) {
+                truncated.putIfAbsent(fingerprint, trace);
+            }
+        }
+        return trace;
+    }
+
+    // class name followed by its top frames, for the exception and each of its causes
+    private static List<Object> fingerprint(Throwable e) {
+        List<Object> fingerprint = new ArrayList<>();
+        Set<Throwable> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Throwable t = e; t != null && seen.add(t); t = t.getCause()) {
+            fingerprint.add(t.getClass().getName());
+            StackTraceElement[] frames = t.getStackTrace();
+            for (int i = 0; i < Math.min(frames.length, TRUNCATED_FRAMES); i++) {
+                fingerprint.add(frames[i]);
+            }
+            fingerprint.add(frames.length);
+        }
+        return fingerprint;
+    }
+
+    private static String render(List<Object> fingerprint) {
+        StringBuilder sb = new StringBuilder();
+        int frames = 0;
+        for (Object element : fingerprint) {
+            if (element instanceof String) {
+                sb.append(sb.length() == 0 ? "" : "Caused by: ").append(element).append('\n');
+                frames = 0;
+            } else if (element instanceof StackTraceElement) {
+                sb.append("\tat ").append(element).append('\n');
+                frames++;
+            } else if ((Integer) element > frames) {
+                sb.append("\t... ").append((Integer) element - frames).append(" more\n");
+            }
+        }
+        return sb.toString();
+    }
+}
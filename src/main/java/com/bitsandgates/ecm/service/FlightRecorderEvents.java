@@ -0,0 +1,205 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.service;
+
+import static java.util.Arrays.asList;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.bitsandgates.ecm.domain.BranchOutput;
+import com.bitsandgates.ecm.domain.Response;
+
+import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+
+// Java Flight Recorder events of tries, branches and loop iterations, in the ECM category. The event types are created
+// with jdk.jfr.EventFactory and called through method handles to keep the Java 8 baseline; without JFR they do nothing.
+// An event is only created while a recording has its type enabled, otherwise the cost is the isEnabled check.
+@Slf4j
+final class FlightRecorderEvents {
+
+    static final EventType TRY = EventType.create("com.bitsandgates.ecm.Try", "Try", "A try of an operation or a loop branch",
+            string("operationId", "Operation Id"),
+            string("branchId", "Loop Branch Id"),
+            string("traceId", "Trace Id"),
+            new Field(int.class, "retryCount", "Retry Count", false),
+            string("outcome", "Outcome"));
+
+    static final EventType BRANCH = EventType.create("com.bitsandgates.ecm.Branch", "Branch",
+            "An invocation of a branch, or of its hedge",
+            string("operationId", "Operation Id"),
+            string("branchId", "Branch Id"),
+            string("traceId", "Trace Id"),
+            new Field(int.class, "retryCount", "Retry Count", false),
+            string("outcome", "Outcome"),
+            new Field(long.class, "queueWait", "Queue Wait", true));
+
+    static final EventType LOOP_ITERATION = EventType.create("com.bitsandgates.ecm.LoopIteration", "Loop Iteration",
+            "An iteration, or a chunk of iterations, of a loop branch",
+            string("operationId", "Operation Id"),
+            string("branchId", "Branch Id"),
+            string("traceId", "Trace Id"),
+            new Field(int.class, "index", "Index", false),
+            new Field(int.class, "retryCount", "Retry Count", false),
+            string("outcome", "Outcome"),
+            new Field(long.class, "queueWait", "Queue Wait", true));
+
+    static final EventType SLOW_BRANCH = EventType.create("com.bitsandgates.ecm.SlowBranch", "Slow Branch",
+            "A branch that ran longer than its watchdog threshold, with a stack sample of its thread",
+            string("operationId", "Operation Id"),
+            string("branchId", "Branch Id"),
+            string("traceId", "Trace Id"),
+            string("thread", "Thread"),
+            new Field(long.class, "elapsed", "Elapsed", true),
+            new Field(long.class, "threshold", "Threshold", true),
+            // not stackTrace, which JFR reserves for the stack of the thread that commits the event
+            string("stackSample", "Stack Sample"));
+
+    private FlightRecorderEvents() {
+    }
+
+    static String outcome(BranchOutput<?> output) {
+        return output == null ? "CANCELLED" : output.isRetry() ? "RETRY" : output.isError() ? "ERROR" : "SUCCESS";
+    }
+
+    static String outcome(Response response) {
+        return response == null ? "ERROR" : response.getRetry() != null ? "RETRY" : "SUCCESS";
+    }
+
+    private static Field string(String name, String label) {
+        return new Field(String.class, name, label, false);
+    }
+
+    @RequiredArgsConstructor
+    private static class Field {
+
+        private final Class<?> type;
+
+        private final String name;
+
+        private final String label;
+
+        // nanoseconds
+        private final boolean timespan;
+    }
+
+    static final class EventType {
+
+        private static final EventType NONE = new EventType(null, null, null, null, null);
+
+        // bound to the jdk.jfr.EventType, ()boolean
+        private final MethodHandle isEnabled;
+
+        // bound to the jdk.jfr.EventFactory, ()Object
+        private final MethodHandle newEvent;
+
+        // (Object)void
+        private final MethodHandle begin;
+
+        // (Object,int,Object)void
+        private final MethodHandle set;
+
+        // (Object)void
+        private final MethodHandle commit;
+
+        private EventType(MethodHandle isEnabled, MethodHandle newEvent, MethodHandle begin, MethodHandle set, MethodHandle commit) {
+            this.isEnabled = isEnabled;
+            this.newEvent = newEvent;
+            this.begin = begin;
+            this.set = set;
+            this.commit = commit;
+        }
+
+        // false without JFR or if the type could not be created
+        boolean isAvailable() {
+            return isEnabled != null;
+        }
+
+        @SneakyThrows
+        boolean isEnabled() {
+            return isEnabled != null && (boolean) isEnabled.invokeExact();
+        }
+
+        // null unless the event is enabled, in which case it has begun
+        @SneakyThrows
+        Object begin() {
+            if (!isEnabled()) {
+                return null;
+            }
+            Object event = (Object) newEvent.invokeExact();
+            begin.invokeExact(event);
+            return event;
+        }
+
+        // values in the order of the fields of the type, a null event is ignored
+        @SneakyThrows
+        void commit(Object event, Object... values) {
+            if (event == null) {
+                return;
+            }
+            for (int i = 0; i < values.length; i++) {
+                set.invokeExact(event, i, values[i]);
+            }
+            commit.invokeExact(event);
+        }
+
+        private static EventType create(String name, String label, String description, Field... fields) {
+            try {
+                Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+                Class<?> eventClass = Class.forName("jdk.jfr.Event");
+                Class<?> eventTypeClass = Class.forName("jdk.jfr.EventType");
+                Class<?> annotationClass = Class.forName("jdk.jfr.AnnotationElement");
+                Class<?> valueClass = Class.forName("jdk.jfr.ValueDescriptor");
+                Constructor<?> annotation = annotationClass.getConstructor(Class.class, Object.class);
+                Constructor<?> value = valueClass.getConstructor(Class.class, String.class, List.class);
+
+                List<Object> annotations = asList(
+                        annotation.newInstance(Class.forName("jdk.jfr.Name"), name),
+                        annotation.newInstance(Class.forName("jdk.jfr.Label"), label),
+                        annotation.newInstance(Class.forName("jdk.jfr.Description"), description),
+                        annotation.newInstance(Class.forName("jdk.jfr.Category"), new String[] { "ECM" }),
+                        // the threads are pool threads, a stack trace would only show the executor
+                        annotation.newInstance(Class.forName("jdk.jfr.StackTrace"), false));
+                List<Object> values = new ArrayList<>();
+                for (Field field : fields) {
+                    List<Object> fieldAnnotations = new ArrayList<>();
+                    fieldAnnotations.add(annotation.newInstance(Class.forName("jdk.jfr.Label"), field.label));
+                    if (field.timespan) {
+                        fieldAnnotations.add(annotation.newInstance(Class.forName("jdk.jfr.Timespan"), "NANOSECONDS"));
+                    }
+                    values.add(value.newInstance(field.type, field.name, fieldAnnotations));
+                }
+                Object factory = factoryClass.getMethod("create", List.class, List.class).invoke(null, annotations, values);
+                Object eventType = factoryClass.getMethod("getEventType").invoke(factory);
+
+                MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+                MethodType object = MethodType.methodType(void.class, Object.class);
+                return new EventType(
+                        lookup.findVirtual(eventTypeClass, "isEnabled", MethodType.methodType(boolean.class)).bindTo(eventType),
+                        lookup.findVirtual(factoryClass, "newEvent", MethodType.methodType(eventClass)).bindTo(factory)
+                                .asType(MethodType.methodType(Object.class)),
+                        lookup.findVirtual(eventClass, "begin", MethodType.methodType(void.class)).asType(object),
+                        lookup.findVirtual(eventClass, "set", MethodType.methodType(void.class, int.class, Object.class))
+                                .asType(MethodType.methodType(void.class, Object.class, int.class, Object.class)),
+                        lookup.findVirtual(eventClass, "commit", MethodType.methodType(void.class)).asType(object));
+            } catch (ClassNotFoundException e) {
+                return NONE;
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                log.warn(String.format("Cannot create flight recorder event [%s]", name), e);
+                return NONE;
+            }
+        }
+    }
+}
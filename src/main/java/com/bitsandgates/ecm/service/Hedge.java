@@ -0,0 +1,62 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Hedging settings and counters of a branch. With a percentile the delay follows the latencies of the branch's recent
+// calls, see LatencyWindow.
+class Hedge {
+
+    static final int SAMPLES = LatencyWindow.SAMPLES;
+
+    private final long afterMillis;
+
+    // null for a fixed delay
+    private final LatencyWindow latencies;
+
+    private final AtomicLong calls = new AtomicLong();
+
+    private final AtomicLong hedges = new AtomicLong();
+
+    private final AtomicLong wins = new AtomicLong();
+
+    Hedge(long afterMillis, double afterPercentile) {
+        this.afterMillis = afterMillis;
+        this.latencies = afterPercentile > 0 ? new LatencyWindow(afterPercentile) : null;
+    }
+
+    // Long.MAX_VALUE for no hedge
+    long getDelayMillis() {
+        long percentile = latencies != null ? latencies.getPercentileMillis() : 0;
+        return percentile > 0 ? percentile : afterMillis > 0 ? afterMillis : Long.MAX_VALUE;
+    }
+
+    void called() {
+        calls.incrementAndGet();
+    }
+
+    void hedged() {
+        hedges.incrementAndGet();
+    }
+
+    void won() {
+        wins.incrementAndGet();
+    }
+
+    void record(long latencyMillis) {
+        if (latencies != null) {
+            latencies.record(latencyMillis);
+        }
+    }
+
+    HedgeMetrics metrics() {
+        return new HedgeMetrics(calls.get(), hedges.get(), wins.get(), getDelayMillis());
+    }
+}
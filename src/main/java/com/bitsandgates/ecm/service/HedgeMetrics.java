@@ -0,0 +1,35 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.service;
+
+import lombok.Value;
+
+// Counters of a hedged branch since the service started
+@Value
+public class HedgeMetrics {
+
+    long calls;
+
+    // calls for which a second invocation was started
+    long hedges;
+
+    // hedges that completed before the first invocation
+    long wins;
+
+    // delay the next hedge is started after, Long.MAX_VALUE while there are too few latencies to take a percentile from
+    long delayMillis;
+
+    public double getHedgeRate() {
+        return calls > 0 ? (double) hedges / calls : 0;
+    }
+
+    public double getWinRate() {
+        return hedges > 0 ? (double) wins / hedges : 0;
+    }
+}
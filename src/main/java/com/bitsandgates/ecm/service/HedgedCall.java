@@ -0,0 +1,65 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.service;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import com.bitsandgates.ecm.domain.BranchOutput;
+
+// The first invocation of a hedged branch and its hedge. The first to return an output wins and interrupts the other.
+class HedgedCall {
+
+    private final Set<Thread> running = new HashSet<>();
+
+    private final Set<Thread> interrupted = new HashSet<>();
+
+    private boolean done;
+
+    synchronized boolean isDone() {
+        return done;
+    }
+
+    // null if the call was already won
+    BranchOutput<?> run(Supplier<BranchOutput<?>> invocation) {
+        Thread thread = Thread.currentThread();
+        synchronized (this) {
+            if (done) {
+                return null;
+            }
+            running.add(thread);
+        }
+        try {
+            return invocation.get();
+        } finally {
+            boolean wasInterrupted;
+            synchronized (this) {
+                running.remove(thread);
+                wasInterrupted = interrupted.remove(thread);
+            }
+            if (wasInterrupted) {
+                // the interrupt was meant for the losing invocation, not for whatever the thread runs next
+                Thread.interrupted();
+            }
+        }
+    }
+
+    synchronized boolean win() {
+        if (done) {
+            return false;
+        }
+        done = true;
+        for (Thread thread : running) {
+            interrupted.add(thread);
+            thread.interrupt();
+        }
+        return true;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.service;
+
+import static java.util.Collections.emptyList;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.bitsandgates.ecm.metrics.BranchSnapshot;
+import com.bitsandgates.ecm.metrics.BranchState;
+import com.bitsandgates.ecm.metrics.LoopSnapshot;
+import com.bitsandgates.ecm.metrics.OperationSnapshot;
+import com.bitsandgates.ecm.service.ThrottledExecutorService.Runner;
+
+// A try of an operation, with the state of each of its branches, or a try of a loop branch, with the runner it
+// submits its iterations to; registered with the InFlightRegistry while it runs
+class InFlight {
+
+    private final OperationContext context;
+
+    private final long startMillis = System.currentTimeMillis();
+
+    // null for a loop
+    private final BranchGraph graph;
+
+    private final AtomicReferenceArray<BranchState> states;
+
+    // null unless this is a loop
+    private final String loopBranchId;
+
+    private final Runner runner;
+
+    private final int loopSize;
+
+    private InFlight(OperationContext context, BranchGraph graph, String loopBranchId, Runner runner, int loopSize) {
+        this.context = context;
+        this.graph = graph;
+        this.states = new AtomicReferenceArray<>(graph != null ? graph.size() : 0);
+        for (int i = 0; i < states.length(); i++) {
+            states.set(i, BranchState.PENDING);
+        }
+        this.loopBranchId = loopBranchId;
+        this.runner = runner;
+        this.loopSize = loopSize;
+    }
+
+    static InFlight operation(OperationContext context, BranchGraph graph) {
+        return new InFlight(context, graph, null, null, -1);
+    }
+
+    static InFlight loop(OperationContext context, String branchId, Runner runner, int size) {
+        return new InFlight(context, null, branchId, runner, size);
+    }
+
+    // a completed branch keeps its state, a hedge may still start after it completed
+    void setState(String branchId, BranchState state) {
+        int position = graph != null ? graph.positionOf(branchId) : -1;
+        if (position < 0) {
+            return;
+        }
+        BranchState current;
+        do {
+            current = states.get(position);
+        } while (!isCompleted(current) && !states.compareAndSet(position, current, state));
+    }
+
+    OperationSnapshot snapshot(long nowMillis) {
+        List<BranchSnapshot> branches = new ArrayList<>(states.length());
+        for (int i = 0; i < states.length(); i++) {
+            List<String> waitingFor = emptyList();
+            for (int dependency : graph.getDependencies(i)) {
+                if (!isCompleted(states.get(dependency))) {
+                    if (waitingFor.isEmpty()) {
+                        waitingFor = new ArrayList<>();
+                    }
+                    waitingFor.add(graph.get(dependency).getId());
+                }
+            }
+            branches.add(new BranchSnapshot(graph.get(i).getId(), states.get(i), waitingFor));
+        }
+        LoopSnapshot loop = runner != null
+                ? new LoopSnapshot(loopSize, runner.getCompleted(), runner.getRunning(), runner.getQueued(), runner.getLimit(),
+                        runner.isBlocked())
+                : null;
+        return new OperationSnapshot(context.getTraceId(), context.getOperationId(), loopBranchId, context.getRetryCount(),
+                nowMillis - startMillis, branches, loop);
+    }
+
+    private static boolean isCompleted(BranchState state) {
+        return state == BranchState.DONE || state == BranchState.FAILED;
+    }
+}
@@ -0,0 +1,43 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.bitsandgates.ecm.metrics.OperationSnapshot;
+
+// Tries of operations and loop branches in flight, see ServiceConfig.trackInFlight
+class InFlightRegistry {
+
+    private final Set<InFlight> inFlight = ConcurrentHashMap.newKeySet();
+
+    InFlight add(InFlight entry) {
+        inFlight.add(entry);
+        return entry;
+    }
+
+    void remove(InFlight entry) {
+        inFlight.remove(entry);
+    }
+
+    // longest running first
+    List<OperationSnapshot> snapshot() {
+        long now = System.currentTimeMillis();
+        List<OperationSnapshot> snapshots = new ArrayList<>();
+        for (InFlight entry : inFlight) {
+            snapshots.add(entry.snapshot(now));
+        }
+        snapshots.sort(Comparator.comparingLong(OperationSnapshot::getElapsedMillis).reversed());
+        return snapshots;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.service;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+import com.bitsandgates.ecm.domain.BranchOutput;
+import com.bitsandgates.ecm.domain.Retry;
+
+// Outputs of a loop branch addressed by element index: a dense array plus a bit set of the indices present, so
+// lookups and retry filtering do not allocate per element. A sparse instance keeps a sorted map instead, for aggregating
+// loops that only keep the few outputs that failed out of any number of elements.
+class IndexedOutputs {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private final BitSet present;
+
+    private BranchOutput<?>[] outputs;
+
+    // null unless sparse
+    private final TreeMap<Integer, BranchOutput<?>> sparse;
+
+    private int size;
+
+    private IndexedOutputs(int capacity, boolean sparse) {
+        this.present = sparse ? null : new BitSet();
+        this.outputs = sparse ? null : new BranchOutput<?>[Math.max(capacity, 1)];
+        this.sparse = sparse ? new TreeMap<>() : null;
+    }
+
+    IndexedOutputs(int capacity) {
+        this(capacity, false);
+    }
+
+    IndexedOutputs() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    static IndexedOutputs sparse() {
+        return new IndexedOutputs(0, true);
+    }
+
+    // outputs of the previous try that do not need to be executed again
+    static IndexedOutputs completed(Retry retry) {
+        return completed(retry, false);
+    }
+
+    static IndexedOutputs completed(Retry retry, boolean sparse) {
+        IndexedOutputs completed = new IndexedOutputs(retry.getOutputs().size(), sparse);
+        for (BranchOutput<?> output : retry.getOutputs()) {
+            if (!output.isRetry()) {
+                completed.put(output.getIndex(), output);
+            }
+        }
+        return completed;
+    }
+
+    synchronized void put(int index, BranchOutput<?> output) {
+        if (sparse != null) {
+            sparse.put(index, output);
+            size = sparse.size();
+            return;
+        }
+        if (index >= outputs.length) {
+            outputs = Arrays.copyOf(outputs, Math.max(index + 1, outputs.length * 2));
+        }
+        if (!present.get(index)) {
+            present.set(index);
+            size++;
+        }
+        outputs[index] = output;
+    }
+
+    synchronized void putAll(IndexedOutputs other) {
+        other.forEach(output -> put(output.getIndex(), output));
+    }
+
+    synchronized boolean contains(int index) {
+        return sparse != null ? sparse.containsKey(index) : present.get(index);
+    }
+
+    synchronized BranchOutput<?> get(int index) {
+        if (sparse != null) {
+            return sparse.get(index);
+        }
+        return present.get(index) ? outputs[index] : null;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    // in index order
+    synchronized void forEach(Consumer<BranchOutput<?>> consumer) {
+        if (sparse != null) {
+            sparse.values().forEach(consumer);
+            return;
+        }
+        for (int i = present.nextSetBit(0); i >= 0; i = present.nextSetBit(i + 1)) {
+            consumer.accept(outputs[i]);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.service;
+
+import static java.lang.invoke.MethodType.methodType;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.List;
+
+import com.bitsandgates.ecm.domain.BranchOutput;
+
+import lombok.SneakyThrows;
+import lombok.experimental.UtilityClass;
+
+// Binds annotated operation methods once into typed invokers so that the per call path is a plain interface call
+// rather than a reflective Method.invoke
+@UtilityClass
+class Invokers {
+
+    private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+    private static final String INVOKE = "invoke";
+
+    @FunctionalInterface
+    interface BranchMethod {
+
+        BranchOutput<?> invoke(Object impl, BranchContext context) throws Throwable;
+    }
+
+    @FunctionalInterface
+    interface LoopBranchMethod {
+
+        BranchOutput<?> invoke(Object impl, BranchContext context, Object loopData, Object element, int index) throws Throwable;
+    }
+
+    @FunctionalInterface
+    interface ChunkMethod {
+
+        List<BranchOutput<?>> invoke(Object impl, BranchContext context, Object loopData, List<?> chunk, int start) throws Throwable;
+    }
+
+    @FunctionalInterface
+    interface ContextMethod {
+
+        Object invoke(Object impl, OperationContext context) throws Throwable;
+    }
+
+    static BranchMethod branch(Method method) {
+        MethodType type = methodType(BranchOutput.class, Object.class, BranchContext.class);
+        if (canSpinLambda(method)) {
+            return spinLambda(BranchMethod.class, type, method);
+        }
+        MethodHandle handle = handle(method, type);
+        return (impl, context) -> (BranchOutput<?>) handle.invokeExact(impl, context);
+    }
+
+    static LoopBranchMethod loopBranch(Method method) {
+        MethodType type = methodType(BranchOutput.class, Object.class, BranchContext.class, Object.class, Object.class, int.class);
+        if (canSpinLambda(method)) {
+            return spinLambda(LoopBranchMethod.class, type, method);
+        }
+        MethodHandle handle = handle(method, type);
+        return (impl, context, loopData, element, index) -> (BranchOutput<?>) handle.invokeExact(impl, context, loopData, element, index);
+    }
+
+    @SuppressWarnings("unchecked")
+    static ChunkMethod chunk(Method method) {
+        MethodType type = methodType(List.class, Object.class, BranchContext.class, Object.class, List.class, int.class);
+        if (canSpinLambda(method)) {
+            return spinLambda(ChunkMethod.class, type, method);
+        }
+        MethodHandle handle = handle(method, type);
+        return (impl, context, loopData, chunk, start) -> (List<BranchOutput<?>>) handle.invokeExact(impl, context, loopData, chunk, start);
+    }
+
+    static ContextMethod context(Method method) {
+        MethodType type = methodType(Object.class, Object.class, OperationContext.class);
+        if (canSpinLambda(method)) {
+            return spinLambda(ContextMethod.class, type, method);
+        }
+        MethodHandle handle = handle(method, type);
+        return (impl, context) -> (Object) handle.invokeExact(impl, context);
+    }
+
+    // A lambda class is spun in this package, so the target must be publicly accessible and visible to this class loader;
+    // anything else (package private operations, classes from child class loaders) falls back to a bound method handle
+    private static boolean canSpinLambda(Method method) {
+        Class<?> clazz = method.getDeclaringClass();
+        if (!Modifier.isPublic(method.getModifiers()) || Modifier.isStatic(method.getModifiers())) {
+            return false;
+        }
+        for (Class<?> c = clazz; c != null; c = c.getEnclosingClass()) {
+            if (!Modifier.isPublic(c.getModifiers())) {
+                return false;
+            }
+        }
+        try {
+            return Class.forName(clazz.getName(), false, Invokers.class.getClassLoader()) == clazz;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    @SneakyThrows
+    private static <T> T spinLambda(Class<T> invokerType, MethodType type, Method method) {
+        MethodHandle target = lookup.unreflect(method);
+        CallSite site = LambdaMetafactory.metafactory(lookup, INVOKE, methodType(invokerType), type, target, target.type());
+        return invokerType.cast(site.getTarget().invoke());
+    }
+
+    @SneakyThrows
+    private static MethodHandle handle(Method method, MethodType type) {
+        method.setAccessible(true);
+        MethodHandle handle = lookup.unreflect(method);
+        if (Modifier.isStatic(method.getModifiers())) {
+            handle = MethodHandles.dropArguments(handle, 0, Object.class);
+        }
+        return handle.asType(type);
+    }
+}
@@ -0,0 +1,63 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.service;
+
+import java.util.Arrays;
+
+// The last SAMPLES latencies of a branch and a percentile of them, recomputed every RECOMPUTE latencies once SAMPLES
+// latencies have been seen
+class LatencyWindow {
+
+    static final int SAMPLES = 128;
+
+    private static final int RECOMPUTE = 16;
+
+    private final double percentile;
+
+    // guarded by this
+    private final long[] latencies = new long[SAMPLES];
+
+    private int position;
+
+    // up to SAMPLES
+    private int samples;
+
+    // recorded since the percentile was last computed
+    private int sinceRecompute;
+
+    private volatile long percentileMillis;
+
+    LatencyWindow(double percentile) {
+        this.percentile = percentile;
+    }
+
+    // 0 until enough latencies have been seen, at least 1 after that
+    long getPercentileMillis() {
+        return percentileMillis;
+    }
+
+    void record(long latencyMillis) {
+        long[] sorted = null;
+        synchronized (this) {
+            latencies[position] = latencyMillis;
+            position = (position + 1) % SAMPLES;
+            samples = Math.min(samples + 1, SAMPLES);
+            sinceRecompute++;
+            if (samples == SAMPLES && sinceRecompute >= RECOMPUTE) {
+                sinceRecompute = 0;
+                sorted = latencies.clone();
+            }
+        }
+        if (sorted != null) {
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100 * SAMPLES) - 1;
+            percentileMillis = Math.max(sorted[Math.max(0, Math.min(index, SAMPLES - 1))], 1);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.service;
+
+import com.bitsandgates.ecm.metrics.ServiceListener;
+import com.bitsandgates.ecm.metrics.ServiceListener.Stage;
+
+import lombok.extern.slf4j.Slf4j;
+
+// Calls to the service listener from branch and loop threads. A listener that throws is logged and otherwise ignored,
+// it must not keep a branch, loop iteration or try from completing.
+@Slf4j
+final class Listeners {
+
+    private Listeners() {
+    }
+
+    static void submitted(ServiceListener listener, Stage stage, String operationId, String id, long waitNanos) {
+        try {
+            listener.submitted(stage, operationId, id, waitNanos);
+        } catch (RuntimeException e) {
+            failed("submitted", stage, id, e);
+        }
+    }
+
+    static void started(ServiceListener listener, Stage stage, String operationId, String id, long queueNanos) {
+        try {
+            listener.started(stage, operationId, id, queueNanos);
+        } catch (RuntimeException e) {
+            failed("started", stage, id, e);
+        }
+    }
+
+    static void finished(ServiceListener listener, Stage stage, String operationId, String id, long durationNanos, boolean error) {
+        try {
+            listener.finished(stage, operationId, id, durationNanos, error);
+        } catch (RuntimeException e) {
+            failed("finished", stage, id, e);
+        }
+    }
+
+    private static void failed(String call, Stage stage, String id, RuntimeException e) {
+        log.error(String.format("Service listener failed on [%s] of [%s] [%s]", call, stage, id), e);
+    }
+}
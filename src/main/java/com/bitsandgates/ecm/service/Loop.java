@@ -9,8 +9,11 @@ LICENSE file in the root directory of this source tree.
 package com.bitsandgates.ecm.service;
 
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.function.Consumer;
 
 import com.bitsandgates.ecm.domain.BranchInput;
+import com.bitsandgates.ecm.domain.BranchOutput;
 import com.bitsandgates.ecm.domain.Retry;
 
 import lombok.Builder;
@@ -37,12 +40,23 @@ class Loop {
     private Object loopData;
     
     private Collection<?> collection;
-    
+
+    private Iterator<?> iterator;
+
+    // null unless the loop aggregates, see BranchContext.loopBranch
+    private Consumer<BranchOutput<?>> consumer;
+
+    // shared by all tries of the loop, as it tracks how far a one-shot iterator has been consumed
+    private LoopSource source;
+
     public String getOperationId() {
         return context.getOperationId();
     }
-    
-    public int getCount() {
-        return collection.size();
+
+    LoopSource source() {
+        if (source == null) {
+            source = collection != null ? LoopSource.of(collection) : LoopSource.of(iterator);
+        }
+        return source;
     }
 }
@@ -0,0 +1,233 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.service;
+
+import static java.util.Collections.emptyList;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import com.bitsandgates.ecm.domain.BranchOutput;
+import com.bitsandgates.ecm.metrics.ServiceListener;
+import com.bitsandgates.ecm.metrics.ServiceListener.Stage;
+import com.bitsandgates.ecm.service.ThrottledExecutorService.Runner;
+
+// A single try of a loop branch. Elements are pulled from the source only as the runner has capacity, so the number of
+// contexts and tasks alive at any time is bounded by the loop concurrency rather than the number of elements.
+class LoopExecution {
+
+    private final OperationContext context;
+
+    private final Branch branch;
+
+    private final Object loopData;
+
+    private final LoopSource source;
+
+    private final Runner runner;
+
+    private final IndexedOutputs completed;
+
+    private final IndexedOutputs outputs;
+
+    private final ServiceListener listener;
+
+    // null unless the loop aggregates, outputs without an error are then passed to it instead of being kept
+    private final Consumer<BranchOutput<?>> consumer;
+
+    // a lock rather than a monitor, a consumer that blocks does not pin the carrier of a virtual thread
+    private final ReentrantLock consuming = new ReentrantLock();
+
+    private List<Object> chunk;
+
+    private int chunkStart;
+
+    // set once the loop is interrupted, the runner stops taking tasks and the elements that were not run are reported
+    // with it as retryable errors
+    private InterruptedException interruption;
+
+    LoopExecution(OperationContext context, Branch branch, Loop loop, Runner runner, IndexedOutputs completed) {
+        this.context = context;
+        this.branch = branch;
+        this.loopData = loop.getLoopData();
+        this.source = loop.source();
+        this.runner = runner;
+        this.completed = completed;
+        this.consumer = loop.getConsumer();
+        this.outputs = consumer != null ? IndexedOutputs.sparse()
+                : source.sizeHint() > 0 ? new IndexedOutputs(source.sizeHint()) : new IndexedOutputs();
+        this.listener = context.getServiceConfig().getListener();
+    }
+
+    // outputs in index order
+    IndexedOutputs run() {
+        // elements of a one-shot source are not seen again, so what completed before is carried over as it is
+        if (branch.isDeterministic() || !source.isReplayable()) {
+            outputs.putAll(completed);
+        }
+        try {
+            source.forEach(this::accept);
+            flushChunk();
+        } finally {
+            runner.close();
+        }
+        runner.awaitCompletion();
+        if (interruption != null) {
+            Thread.currentThread().interrupt();
+        }
+        return outputs;
+    }
+
+    private void accept(int index, Object element) {
+        if (branch.isDeterministic() && completed.contains(index)) {
+            flushChunk();
+            return;
+        }
+        if (interruption != null) {
+            flushChunk();
+            addOutput(new BranchContext(branch.getId(), context, index, emptyList()).outputBuilder(Void.class, interruption, true)
+                    .build(), element);
+            return;
+        }
+        if (branch.getChunkSize() > 0) {
+            // chunks are contiguous runs of elements that still need to execute
+            if (chunk != null && index != chunkStart + chunk.size()) {
+                flushChunk();
+            }
+            if (chunk == null) {
+                chunk = new ArrayList<>(branch.getChunkSize());
+                chunkStart = index;
+            }
+            chunk.add(element);
+            if (chunk.size() == branch.getChunkSize()) {
+                flushChunk();
+            }
+        } else {
+            executeIteration(index, element);
+        }
+    }
+
+    private void executeIteration(int index, Object element) {
+        BranchContext ctx = new BranchContext(branch.getId(), context, index, emptyList());
+        long submitting = timed() ? System.nanoTime() : 0;
+        try {
+            runner.submit(() -> {
+                Object event = FlightRecorderEvents.LOOP_ITERATION.begin();
+                long start = started(submitting);
+                BranchOutput<?> output = null;
+                try {
+                    output = branch.run(ctx, loopData, element, index);
+                } finally {
+                    finished(event, index, submitting, start, output == null || output.isError(),
+                            output != null ? FlightRecorderEvents.outcome(output) : "ERROR");
+                }
+                addOutput(output, element);
+                return !output.isRetry();
+            });
+        } catch (InterruptedException e) {
+            interruption = e;
+            addOutput(ctx.outputBuilder(Void.class, e, true).build(), element);
+        } catch (RuntimeException e) {
+            addOutput(ctx.outputBuilder(Void.class, e, false).build(), element);
+        }
+    }
+
+    private void flushChunk() {
+        if (chunk == null) {
+            return;
+        }
+        List<Object> elements = chunk;
+        int start = chunkStart;
+        chunk = null;
+        BranchContext ctx = new BranchContext(branch.getId(), context, start, emptyList());
+        if (interruption != null) {
+            completeChunkWithError(ctx, elements, start, interruption, true);
+            return;
+        }
+        long submitting = timed() ? System.nanoTime() : 0;
+        try {
+            runner.submit(() -> {
+                Object event = FlightRecorderEvents.LOOP_ITERATION.begin();
+                long started = started(submitting);
+                boolean success = true;
+                boolean error = false;
+                boolean returned = false;
+                try {
+                    for (BranchOutput<?> output : branch.run(ctx, loopData, elements, start)) {
+                        addOutput(output, elements.get(output.getIndex() - start));
+                        success &= !output.isRetry();
+                        error |= output.isError();
+                    }
+                    returned = true;
+                } finally {
+                    finished(event, start, submitting, started, error || !returned,
+                            !returned ? "ERROR" : !success ? "RETRY" : error ? "ERROR" : "SUCCESS");
+                }
+                return success;
+            });
+        } catch (InterruptedException e) {
+            interruption = e;
+            completeChunkWithError(ctx, elements, start, e, true);
+        } catch (RuntimeException e) {
+            completeChunkWithError(ctx, elements, start, e, false);
+        }
+    }
+
+    // the clock is only read for a listener or a recording of loop iteration events
+    private boolean timed() {
+        return listener != ServiceListener.none() || FlightRecorderEvents.LOOP_ITERATION.isEnabled();
+    }
+
+    // the queue time of an iteration includes the wait for a free slot of the loop
+    private long started(long submitting) {
+        if (submitting == 0) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        Listeners.started(listener, Stage.LOOP_ITERATION, context.getOperationId(), branch.getId(), now - submitting);
+        return now;
+    }
+
+    private void finished(Object event, int index, long submitting, long start, boolean error, String outcome) {
+        if (start != 0) {
+            Listeners.finished(listener, Stage.LOOP_ITERATION, context.getOperationId(), branch.getId(), System.nanoTime() - start, error);
+        }
+        FlightRecorderEvents.LOOP_ITERATION.commit(event, context.getOperationId(), branch.getId(), context.getTraceId(),
+                index, context.getRetryCount(), outcome, start != 0 ? start - submitting : 0);
+    }
+
+    private void completeChunkWithError(BranchContext ctx, List<Object> elements, int start, Exception e, boolean canRetry) {
+        for (int i = 0; i < elements.size(); i++) {
+            addOutput(ctx.outputBuilder(Void.class, e, canRetry).index(start + i).build(), elements.get(i));
+        }
+    }
+
+    private void addOutput(BranchOutput<?> output, Object element) {
+        if (output.isRetry()) {
+            source.retain(output.getIndex(), element);
+        }
+        if (consumer != null && !output.isError()) {
+            consuming.lock();
+            try {
+                consumer.accept(output);
+                return;
+            } catch (RuntimeException e) {
+                // the output is lost to the aggregate, it is reported as an error that is not retried
+                output = new BranchContext(branch.getId(), context, output.getIndex(), emptyList())
+                        .outputBuilder(Void.class, e, false)
+                        .build();
+            } finally {
+                consuming.unlock();
+            }
+        }
+        outputs.put(output.getIndex(), output);
+    }
+}
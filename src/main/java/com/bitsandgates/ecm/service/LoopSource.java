@@ -0,0 +1,81 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.service;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+// Elements of a loop. A collection can be iterated again on every try, while a one-shot source (iterator or stream)
+// is consumed once: elements that need to be retried are retained, and a try that stopped early resumes where it left off.
+class LoopSource {
+
+    @FunctionalInterface
+    interface IndexedConsumer {
+
+        void accept(int index, Object element);
+    }
+
+    private final Collection<?> collection;
+
+    private final Iterator<?> iterator;
+
+    private final NavigableMap<Integer, Object> retained = new ConcurrentSkipListMap<>();
+
+    private int next;
+
+    private LoopSource(Collection<?> collection, Iterator<?> iterator) {
+        this.collection = collection;
+        this.iterator = iterator;
+    }
+
+    static LoopSource of(Collection<?> collection) {
+        return new LoopSource(collection, null);
+    }
+
+    static LoopSource of(Iterator<?> iterator) {
+        return new LoopSource(null, iterator);
+    }
+
+    boolean isReplayable() {
+        return collection != null;
+    }
+
+    // number of elements if known up front, otherwise 0
+    int sizeHint() {
+        return isReplayable() ? collection.size() : 0;
+    }
+
+    // every element is passed to the consumer, a loop that is interrupted still reports the elements it did not run
+    void forEach(IndexedConsumer consumer) {
+        if (isReplayable()) {
+            Iterator<?> it = collection.iterator();
+            for (int i = 0; it.hasNext(); i++) {
+                consumer.accept(i, it.next());
+            }
+            return;
+        }
+        Map.Entry<Integer, Object> entry;
+        while ((entry = retained.pollFirstEntry()) != null) {
+            consumer.accept(entry.getKey(), entry.getValue());
+        }
+        while (iterator.hasNext()) {
+            consumer.accept(next++, iterator.next());
+        }
+    }
+
+    // keeps an element of a one-shot source so that it can be passed to the branch again on the next try
+    void retain(int index, Object element) {
+        if (!isReplayable()) {
+            retained.put(index, element);
+        }
+    }
+}
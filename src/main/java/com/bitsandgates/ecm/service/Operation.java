@@ -11,42 +11,49 @@ package com.bitsandgates.ecm.service;
 import static com.bitsandgates.ecm.service.Utils.combineAllFutures;
 import static java.util.Collections.emptyList;
 import static java.util.Collections.emptyMap;
-import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toMap;
 
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
 import com.bitsandgates.ecm.ProxyFactory;
+import com.bitsandgates.ecm.annotation.FailFast;
 import com.bitsandgates.ecm.domain.BranchInput;
 import com.bitsandgates.ecm.domain.BranchOutput;
 import com.bitsandgates.ecm.domain.Request;
 import com.bitsandgates.ecm.domain.Response;
 import com.bitsandgates.ecm.domain.Retry;
+import com.bitsandgates.ecm.metrics.CriticalPath;
+import com.bitsandgates.ecm.metrics.BranchState;
+import com.bitsandgates.ecm.metrics.CriticalPathReport;
+import com.bitsandgates.ecm.metrics.ServiceListener;
+import com.bitsandgates.ecm.metrics.ServiceListener.Stage;
 import com.bitsandgates.ecm.service.ThrottledExecutorService.Runner;
 
 import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
 
+@Slf4j
 @RequiredArgsConstructor(access = AccessLevel.PACKAGE)
 public class Operation {
 
-    private static final int MAX_LOOP_CONCURRENCY = 10;
-
     @Getter
     private final String id;
 
-    private final List<Branch> branches;
+    @Getter(AccessLevel.PACKAGE)
+    private final BranchGraph graph;
 
     private final Map<String, Branch> loopBranches;
 
@@ -54,6 +61,11 @@ public class Operation {
 
     private final Function<OperationContext, Response> afterBranches;
 
+    // see @FailFast
+    private final boolean failFast;
+
+    private final CriticalPathStats criticalPaths;
+
     public static void bindToServcie(Service service, Object obj) {
         service.addOperation(create(obj));
     }
@@ -86,7 +98,9 @@ public class Operation {
                 aftertBranches = Utils.createAfterBranches(obj, method, proxyFactory);
             }
         }
-        return new Operation(operationId, branches, loopBranches, beforeBranches, aftertBranches);
+        BranchGraph graph = BranchGraph.create(branches);
+        return new Operation(operationId, graph, loopBranches, beforeBranches, aftertBranches,
+                clazz.isAnnotationPresent(FailFast.class), new CriticalPathStats(graph));
     }
 
     BranchInput<?> defaultBeforeBranches(OperationContext context) {
@@ -94,7 +108,7 @@ public class Operation {
     }
 
     Response defaultAfterBranches(OperationContext context) {
-        return context.responseBuilder().payload(context.getBrancheOutputs()).build();
+        return context.responseBuilder().payload(context.getOutputsSnapshot()).build();
     }
 
     private Function<OperationContext, BranchInput<?>> getBeforeBranches() {
@@ -105,8 +119,11 @@ public class Operation {
         return afterBranches != null ? afterBranches : this::defaultAfterBranches;
     };
 
-    @SneakyThrows
     public Response execute(OperationContext context) {
+        return Utils.getResult(executeAsync(context));
+    }
+
+    public CompletableFuture<Response> executeAsync(OperationContext context) {
 
         Request request = context.getRequest();
 
@@ -120,19 +137,56 @@ public class Operation {
         } else {
             input = getBeforeBranches().apply(context);
             outputs = emptyMap();
+            context.getServiceConfig().getBranchOutputStore().input(request, input);
         }
 
         context.setBranchInput(input);
 
-        Map<String, CompletableFuture<BranchOutput<?>>> results = initResults();
-
         ExecutorService executor = context.getService().getExecutorService();
 
-        branches.forEach(branch -> executeBranch(executor, context, branch, results, outputs.get(branch.getId())));
+        Timeline timeline = context.getServiceConfig().isCriticalPath() ? new Timeline(graph) : null;
+        context.setTimeline(timeline);
 
-        combineAllFutures(results.values()).get().forEach(output -> context.addBranchOutput(output));
+        InFlightRegistry registry = context.getService().getInFlightRegistry();
+        InFlight inFlight = registry != null ? registry.add(InFlight.operation(context, graph)) : null;
+        context.setInFlight(inFlight);
 
-        return getResponse(context);
+        // all results exist before any branch is scheduled, a cancellation may complete them while branches are scheduled
+        List<CompletableFuture<BranchOutput<?>>> results = new ArrayList<>(graph.size());
+        for (int i = 0; i < graph.size(); i++) {
+            results.add(new CompletableFuture<>());
+        }
+        long deadline = request.getDeadlineMillis();
+        Cancellation cancellation = failFast || deadline > 0 || hasTimeouts() ? new Cancellation(context, graph, results, failFast) : null;
+        ScheduledFuture<?> expiry = deadline > 0
+                ? context.getService().schedule(cancellation::expire, deadline - System.currentTimeMillis())
+                : null;
+        for (int i = 0; i < graph.size(); i++) {
+            Branch branch = graph.get(i);
+            if (timeline != null) {
+                // results completed by a cancellation do not go through complete
+                int position = i;
+                results.get(i).thenRun(() -> timeline.ended(position));
+            }
+            if (inFlight != null) {
+                results.get(i).thenAccept(output -> inFlight.setState(branch.getId(),
+                        output.isError() ? BranchState.FAILED : BranchState.DONE));
+            }
+            executeBranch(executor, context, cancellation, branch, results.get(i), dependencyResults(i, results),
+                    outputs.get(branch.getId()));
+        }
+
+        // outputs are published to the context as each branch completes
+        CompletableFuture<Response> response = combineAllFutures(results).thenApply(__ -> {
+            cancelTimer(expiry);
+            if (timeline != null) {
+                CriticalPath path = timeline.analyze(id, request.getTraceId());
+                criticalPaths.record(path);
+                context.setCriticalPath(path);
+            }
+            return getResponse(context);
+        });
+        return inFlight != null ? response.whenComplete((r, e) -> registry.remove(inFlight)) : response;
     }
 
     @SneakyThrows
@@ -140,110 +194,335 @@ public class Operation {
         OperationContext context = loop.getContext();
 
         BranchInput<?> input;
-        Map<String, BranchOutput<?>> outputs;
+        IndexedOutputs outputs;
         Retry retry = loop.getRetry();
         if (retry != null) {
             input = retry.getBranchInput();
-            outputs = getCompletedBranchOutputsForLoop(retry);
+            outputs = IndexedOutputs.completed(retry, loop.getConsumer() != null);
         } else {
             input = loop.getInput();
-            outputs = emptyMap();
+            outputs = new IndexedOutputs();
         }
 
         context.setBranchInput(input);
 
         Branch branch = loopBranches.get(loop.getBranchId());
 
-        Map<String, CompletableFuture<BranchOutput<?>>> results = initResults(loop.getBranchId(), loop.getCount());
-
         ThrottledExecutorService executor = context.getService().getThrottledExecutorService();
 
-        Runner runner = executor.newRunner(getConcurrency(loop));
+        Runner runner = executor.newRunner(getConcurrencyLimit(loop, branch));
 
+        InFlightRegistry registry = context.getService().getInFlightRegistry();
+        LoopSource source = loop.source();
+        InFlight inFlight = registry != null
+                ? registry.add(InFlight.loop(context, branch.getId(), runner, source.isReplayable() ? source.sizeHint() : -1))
+                : null;
         try {
-            Iterator<?> it = loop.getCollection().iterator();
-            for (int i = 0; it.hasNext(); i++) {
-                executeBranchIteration(runner, context, branch, loop.getLoopData(), it.next(), i, results,
-                        outputs.get(indexedResultKey(branch.getId(), i)));
-            }
+            new LoopExecution(context, branch, loop, runner, outputs).run().forEach(context::addBranchOutput);
         } finally {
-            runner.close();
+            if (inFlight != null) {
+                registry.remove(inFlight);
+            }
         }
-        combineAllFutures(results.values()).get().forEach(output -> context.addBranchOutput(output));
 
         return getResponse(context);
     }
 
-    void executeBranch(ExecutorService executor, OperationContext context, Branch branch,
-            Map<String, CompletableFuture<BranchOutput<?>>> results, BranchOutput<?> output) {
-        CompletableFuture<BranchOutput<?>> result = results.get(branch.getId());
+    private void executeBranch(ExecutorService executor, OperationContext context, Cancellation cancellation, Branch branch,
+            CompletableFuture<BranchOutput<?>> result, List<CompletableFuture<BranchOutput<?>>> dependencies, BranchOutput<?> output) {
         if (output != null && branch.isDeterministic()) {
-            result.complete(output);
+            complete(context, cancellation, result, output);
         } else {
-            BranchContext ctx = new BranchContext(branch.getId(), context, 0, extractDependencyResults(branch, results));
-            try {
-                executor.execute(() -> result.complete(branch.run(ctx.waitForDependencies())));
-            } catch (RuntimeException e) {
-                result.complete(ctx.outputBuilder(Void.class, e, false).build());
+            BranchContext ctx = new BranchContext(branch.getId(), context, 0, dependencies);
+            ServiceListener listener = context.getServiceConfig().getListener();
+            if (isTimed(listener)) {
+                ctx.setSubmittedNanos(System.nanoTime());
             }
+            // dependants are only submitted once all their dependencies have completed, so no thread is parked waiting
+            combineAllFutures(dependencies).thenRun(() -> {
+                if (result.isDone()) {
+                    return;
+                }
+                submitted(listener, ctx);
+                setState(context, branch.getId(), BranchState.WAITING);
+                if (branch.getTimeoutMillis() > 0) {
+                    // covers the in place retries of the branch as well
+                    ctx.setDeadlineMillis(System.currentTimeMillis() + branch.getTimeoutMillis());
+                    ScheduledFuture<?> timeout = context.getService()
+                            .schedule(() -> cancellation.timeout(result, branch.getId(), branch.getTimeoutMillis()), branch.getTimeoutMillis());
+                    result.whenComplete((__, e) -> cancelTimer(timeout));
+                }
+                try {
+                    executor.execute(() -> runBranch(context, cancellation, branch, ctx, result, 0, 0));
+                } catch (RuntimeException e) {
+                    complete(context, cancellation, result, ctx.outputBuilder(Void.class, e, false).build());
+                }
+            });
         }
     }
 
-    void executeBranchIteration(Runner runner, OperationContext context, Branch branch, Object loopData, Object element, int index,
-            Map<String, CompletableFuture<BranchOutput<?>>> results, BranchOutput<?> output) {
-        CompletableFuture<BranchOutput<?>> result = results.get(indexedResultKey(branch.getId(), index));
-        if (output != null && branch.isDeterministic()) {
-            result.complete(output);
-        } else {
-            BranchContext ctx = new BranchContext(branch.getId(), context, index, emptyList());
-            try {
-                runner.run(() -> result.complete(branch.run(ctx, loopData, element, index)));
-            } catch (InterruptedException e) {
-                result.complete(ctx.outputBuilder(Void.class, e, true).build());
-            } catch (RuntimeException e) {
-                result.complete(ctx.outputBuilder(Void.class, e, false).build());
+    // A branch that asks for a retry is run again in place, up to the service branchTries, before its output completes.
+    // Its dependants have not started yet and the other branches keep their outputs, so the cost of the retry is the
+    // failed branch alone.
+    private void runBranch(OperationContext context, Cancellation cancellation, Branch branch, BranchContext ctx,
+            CompletableFuture<BranchOutput<?>> result, int attempt, long previousDelay) {
+        if (branch.getHedge() != null) {
+            runHedged(context, cancellation, branch, ctx, result, attempt, previousDelay);
+            return;
+        }
+        BranchOutput<?> output = invoke(cancellation, branch, ctx, result);
+        if (output != null) {
+            completeOrRetry(context, cancellation, branch, ctx, result, attempt, previousDelay, output);
+        }
+    }
+
+    // Idempotent branches can be hedged: if the branch has not returned after the hedge delay, it is invoked a second time
+    // and whichever invocation returns first is used, the other is interrupted
+    private void runHedged(OperationContext context, Cancellation cancellation, Branch branch, BranchContext ctx,
+            CompletableFuture<BranchOutput<?>> result, int attempt, long previousDelay) {
+        Hedge hedge = branch.getHedge();
+        HedgedCall call = new HedgedCall();
+        long start = System.nanoTime();
+        hedge.called();
+        long delay = hedge.getDelayMillis();
+        // a hedge that cannot be submitted is not counted as one
+        ScheduledFuture<?> timer = delay == Long.MAX_VALUE ? null : context.getService().scheduleOrSkip(() -> {
+            if (call.isDone() || result.isDone()) {
+                return;
+            }
+            hedge.hedged();
+            BranchContext hedgeCtx = ctx.copy();
+            hedgeCtx.setSubmittedNanos(System.nanoTime());
+            BranchOutput<?> output = call.run(() -> invoke(cancellation, branch, hedgeCtx, result));
+            if (output != null && call.win()) {
+                hedge.won();
+                hedge.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                completeOrRetry(context, cancellation, branch, ctx, result, attempt, previousDelay, output);
+            }
+        }, delay);
+        BranchOutput<?> output = call.run(() -> invoke(cancellation, branch, ctx, result));
+        if (output != null && call.win()) {
+            cancelTimer(timer);
+            hedge.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            completeOrRetry(context, cancellation, branch, ctx, result, attempt, previousDelay, output);
+        }
+    }
+
+    // null if the branch was cut short and its result completed without this output
+    private static BranchOutput<?> invoke(Cancellation cancellation, Branch branch, BranchContext ctx,
+            CompletableFuture<BranchOutput<?>> result) {
+        if (cancellation == null) {
+            return run(branch, ctx);
+        }
+        if (!cancellation.started(result, branch.getId())) {
+            return null;
+        }
+        BranchOutput<?> output;
+        try {
+            output = run(branch, ctx);
+        } finally {
+            cancellation.stopped();
+        }
+        return result.isDone() ? null : output;
+    }
+
+    private static BranchOutput<?> run(Branch branch, BranchContext ctx) {
+        Timeline timeline = ctx.getOperationContext().getTimeline();
+        if (timeline != null) {
+            timeline.started(branch.getId());
+        }
+        setState(ctx.getOperationContext(), branch.getId(), BranchState.RUNNING);
+        Watchdog watchdog = ctx.getOperationContext().getServiceConfig().getWatchdog();
+        if (watchdog == null) {
+            return instrumented(branch, ctx);
+        }
+        Watchdog.Watch watch = watchdog.start(branch, ctx);
+        try {
+            return instrumented(branch, ctx);
+        } finally {
+            watchdog.stop(watch);
+        }
+    }
+
+    private static BranchOutput<?> instrumented(Branch branch, BranchContext ctx) {
+        ServiceListener listener = ctx.getOperationContext().getServiceConfig().getListener();
+        Object event = FlightRecorderEvents.BRANCH.begin();
+        if (listener == ServiceListener.none() && event == null) {
+            return branch.run(ctx.waitForDependencies());
+        }
+        String operationId = ctx.getOperationContext().getOperationId();
+        long start = System.nanoTime();
+        // not submitted with a time if the recording started since
+        long queue = ctx.getSubmittedNanos() != 0 ? start - ctx.getSubmittedNanos() : 0;
+        Listeners.started(listener, Stage.BRANCH, operationId, branch.getId(), queue);
+        BranchOutput<?> output = null;
+        try {
+            output = branch.run(ctx.waitForDependencies());
+            return output;
+        } finally {
+            Listeners.finished(listener, Stage.BRANCH, operationId, branch.getId(), System.nanoTime() - start,
+                    output == null || output.isError());
+            FlightRecorderEvents.BRANCH.commit(event, operationId, branch.getId(), ctx.getTraceId(), ctx.getRetryCount(),
+                    output != null ? FlightRecorderEvents.outcome(output) : "ERROR", queue);
+        }
+    }
+
+    // the clock is only read for a listener or a recording of branch events
+    private static boolean isTimed(ServiceListener listener) {
+        return listener != ServiceListener.none() || FlightRecorderEvents.BRANCH.isEnabled();
+    }
+
+    // the wait is from when the branch was scheduled, or from when its in place retry was
+    private static void submitted(ServiceListener listener, BranchContext ctx) {
+        if (isTimed(listener)) {
+            long now = System.nanoTime();
+            Listeners.submitted(listener, Stage.BRANCH, ctx.getOperationContext().getOperationId(), ctx.getBranchId(), now - ctx.getSubmittedNanos());
+            ctx.setSubmittedNanos(now);
+        }
+    }
+
+    private void completeOrRetry(OperationContext context, Cancellation cancellation, Branch branch, BranchContext ctx,
+            CompletableFuture<BranchOutput<?>> result, int attempt, long previousDelay, BranchOutput<?> output) {
+        ServiceConfig config = context.getServiceConfig();
+        if (!output.isRetry() || attempt + 1 >= config.getBranchTries() || !config.getRetryBudget().tryAcquireRetry()) {
+            journal(config, context, output);
+            complete(context, cancellation, result, output);
+            return;
+        }
+        RetryPolicy policy = branch.getRetryPolicy() != null ? branch.getRetryPolicy() : config.getRetryPolicy();
+        long delay = policy.getDelayMillis(attempt + 1, previousDelay);
+        ctx.setAttempt(attempt + 1);
+        if (isTimed(config.getListener())) {
+            ctx.setSubmittedNanos(System.nanoTime());
+        }
+        setState(context, branch.getId(), BranchState.WAITING);
+        context.getService().delay(delay).whenComplete((__, e) -> {
+            if (e != null) {
+                complete(context, cancellation, result, ctx.outputBuilder(Void.class, e, false).build());
+            } else {
+                submitted(config.getListener(), ctx);
+                runBranch(context, cancellation, branch, ctx, result, attempt + 1, delay);
+            }
+        });
+    }
+
+    // a journal that fails loses the output on a crash, the operation still completes
+    private static void journal(ServiceConfig config, OperationContext context, BranchOutput<?> output) {
+        try {
+            config.getBranchOutputStore().output(context.getRequest(), output);
+        } catch (RuntimeException e) {
+            log.error(String.format("Cannot journal output of branch [%s] of trace [%s]", output.getBranchId(),
+                    context.getTraceId()), e);
+        }
+    }
+
+    private static void setState(OperationContext context, String branchId, BranchState state) {
+        if (context.getInFlight() != null) {
+            context.getInFlight().setState(branchId, state);
+        }
+    }
+
+    private boolean hasTimeouts() {
+        for (int i = 0; i < graph.size(); i++) {
+            if (graph.get(i).getTimeoutMillis() > 0) {
+                return true;
             }
         }
+        return false;
     }
 
-    private static List<CompletableFuture<BranchOutput<?>>> extractDependencyResults(Branch branch,
-            Map<String, CompletableFuture<BranchOutput<?>>> results) {
-        return Optional.ofNullable(branch.getDependencies())
-                .map(deps -> deps.stream().map(branchId -> results.get(branchId)).collect(toList()))
-                .orElse(emptyList());
+    private static void cancelTimer(ScheduledFuture<?> timer) {
+        if (timer != null) {
+            timer.cancel(false);
+        }
+    }
+
+    // the output is in the context before the future completes, so it is there once all the futures have completed
+    private static void complete(OperationContext context, Cancellation cancellation, CompletableFuture<BranchOutput<?>> result,
+            BranchOutput<?> output) {
+        if (context.getTimeline() != null) {
+            context.getTimeline().ended(output.getBranchId());
+        }
+        if (cancellation != null) {
+            cancellation.complete(result, output);
+        } else {
+            context.addBranchOutput(output);
+            result.complete(output);
+        }
+    }
+
+    private List<CompletableFuture<BranchOutput<?>>> dependencyResults(int position, List<CompletableFuture<BranchOutput<?>>> results) {
+        int[] dependencies = graph.getDependencies(position);
+        if (dependencies.length == 0) {
+            return emptyList();
+        }
+        List<CompletableFuture<BranchOutput<?>>> futures = new ArrayList<>(dependencies.length);
+        for (int dependency : dependencies) {
+            futures.add(results.get(dependency));
+        }
+        return futures;
     }
 
     private static Map<String, BranchOutput<?>> getCompletedBranchOutputs(Retry retry) {
         return retry.getOutputs().stream().filter(output -> !output.isRetry()).collect(toMap(BranchOutput::getBranchId, output -> output));
     }
 
-    private static Map<String, BranchOutput<?>> getCompletedBranchOutputsForLoop(Retry retry) {
-        return retry.getOutputs().stream().filter(output -> !output.isRetry())
-                .collect(toMap(output -> indexedResultKey(output.getBranchId(), output.getIndex()), output -> output));
+    // the longest delay asked for by the branches that need a retry, branches without @Backoff use the default policy
+    long getRetryDelayMillis(Retry retry, RetryPolicy defaultPolicy, int retryCount, long previousDelayMillis) {
+        return getRetryDelayMillis(retry, defaultPolicy, retryCount, previousDelayMillis, false);
     }
 
-    private Map<String, CompletableFuture<BranchOutput<?>>> initResults() {
-        return branches.stream().collect(toMap(Branch::getId, __ -> new CompletableFuture<>()));
+    long getLoopRetryDelayMillis(Retry retry, RetryPolicy defaultPolicy, int retryCount, long previousDelayMillis) {
+        return getRetryDelayMillis(retry, defaultPolicy, retryCount, previousDelayMillis, true);
     }
 
-    private static Map<String, CompletableFuture<BranchOutput<?>>> initResults(String branchId, int count) {
-        Map<String, CompletableFuture<BranchOutput<?>>> results = new HashMap<>();
-        for (int i = 0; i < count; i++) {
-            results.put(indexedResultKey(branchId, i), new CompletableFuture<>());
+    private long getRetryDelayMillis(Retry retry, RetryPolicy defaultPolicy, int retryCount, long previousDelayMillis, boolean loop) {
+        if (retry.getOutputs() == null) {
+            return defaultPolicy.getDelayMillis(retryCount, previousDelayMillis);
         }
-        return results;
+        List<RetryPolicy> policies = new ArrayList<>(1);
+        for (BranchOutput<?> output : retry.getOutputs()) {
+            if (output.isRetry()) {
+                Branch branch = loop ? loopBranches.get(output.getBranchId()) : getBranch(output.getBranchId());
+                RetryPolicy policy = branch != null && branch.getRetryPolicy() != null ? branch.getRetryPolicy() : defaultPolicy;
+                if (!policies.contains(policy)) {
+                    policies.add(policy);
+                }
+            }
+        }
+        long delay = 0;
+        for (RetryPolicy policy : policies) {
+            delay = Math.max(delay, policy.getDelayMillis(retryCount, previousDelayMillis));
+        }
+        return delay;
+    }
+
+    Optional<HedgeMetrics> getHedgeMetrics(String branchId) {
+        return Optional.ofNullable(getBranch(branchId)).map(Branch::getHedge).map(Hedge::metrics);
+    }
+
+    CriticalPathReport getCriticalPathReport() {
+        return criticalPaths.report(id);
     }
 
-    private static String indexedResultKey(String branchId, int index) {
-        return branchId + "." + index;
+    private Branch getBranch(String branchId) {
+        int position = graph.positionOf(branchId);
+        return position >= 0 ? graph.get(position) : null;
     }
 
-    private static int getConcurrency(Loop loop) {
-        int concurrency = loop.getConcurrency();
-        if (concurrency == 0 || concurrency > MAX_LOOP_CONCURRENCY) {
-            concurrency = MAX_LOOP_CONCURRENCY;
+    // explicit loop concurrency takes precedence over @LoopBranch, which takes precedence over the service default. Only
+    // the service default is bounded by maxLoopConcurrency, an adaptive limit can grow up to it or to the explicit
+    // concurrency if that is higher.
+    private static ConcurrencyLimit getConcurrencyLimit(Loop loop, Branch branch) {
+        ServiceConfig config = loop.getContext().getServiceConfig();
+        int max = Math.max(1, config.getMaxLoopConcurrency());
+        int concurrency = loop.getConcurrency() > 0 ? loop.getConcurrency() : branch.getConcurrency();
+        if (concurrency > 0) {
+            max = Math.max(max, concurrency);
+        } else {
+            concurrency = Math.max(1, Math.min(config.getLoopConcurrency(), max));
         }
-        return concurrency;
+        return branch.isAdaptiveConcurrency() ? ConcurrencyLimit.aimd(concurrency, 1, max) : ConcurrencyLimit.fixed(concurrency);
     }
 
     private Response getResponse(OperationContext ctx) {
@@ -251,10 +530,23 @@ public class Operation {
             return ctx.responseBuilder()
                     .retry(Retry.builder()
                             .branchInput(ctx.getBranchInput())
-                            .outputs(ctx.getBrancheOutputs())
+                            .outputs(ctx.getOutputsSnapshot())
                             .build())
                     .build();
         }
-        return getAfterBranches().apply(ctx);
+        ServiceListener listener = ctx.getServiceConfig().getListener();
+        if (listener == ServiceListener.none()) {
+            return getAfterBranches().apply(ctx);
+        }
+        long start = System.nanoTime();
+        Listeners.started(listener, Stage.AFTER_BRANCHES, id, id, 0);
+        boolean error = true;
+        try {
+            Response response = getAfterBranches().apply(ctx);
+            error = false;
+            return response;
+        } finally {
+            Listeners.finished(listener, Stage.AFTER_BRANCHES, id, id, System.nanoTime() - start, error);
+        }
     }
 }
@@ -10,14 +10,15 @@ package com.bitsandgates.ecm.service;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
+import java.util.function.Consumer;
 
 import com.bitsandgates.ecm.domain.BranchInput;
 import com.bitsandgates.ecm.domain.BranchOutput;
 import com.bitsandgates.ecm.domain.Request;
 import com.bitsandgates.ecm.domain.Response;
+import com.bitsandgates.ecm.metrics.CriticalPath;
 
 import lombok.AccessLevel;
 import lombok.Getter;
@@ -36,29 +37,38 @@ public class OperationContext {
     private BranchInput<?> branchInput;
 
     @Getter(AccessLevel.NONE)
-    private Map<String, BranchOutputs> branchOutputs = new HashMap<>();
-
-    private BranchOutputs getOutputs(String branchId) {
-        BranchOutputs outputs = branchOutputs.get(branchId);
-        if (outputs == null) {
-            outputs = new BranchOutputs();
-            branchOutputs.put(branchId, outputs);
-        }
-        return outputs;
-    }
+    private final BranchOutputs branchOutputs = new BranchOutputs();
+
+    @Getter(AccessLevel.PACKAGE)
+    @Setter(AccessLevel.PACKAGE)
+    private Timeline timeline;
+
+    @Getter(AccessLevel.PACKAGE)
+    @Setter(AccessLevel.PACKAGE)
+    private InFlight inFlight;
+
+    // set once all branches have completed when ServiceConfig.criticalPath is set, so available to @AfterBranches
+    @Setter(AccessLevel.PACKAGE)
+    private CriticalPath criticalPath;
 
     boolean hasRetry() {
-        return branchOutputs.values().stream().filter(o -> o.isRetry()).findFirst().map(__ -> true).orElse(false);
+        return branchOutputs.isRetry();
     }
 
+    // safe to call from any thread, branches publish their outputs as they complete
     void addBranchOutput(BranchOutput<?> output) {
-        getOutputs(output.getBranchId()).addOutput(output);
+        branchOutputs.addOutput(output);
     }
 
+    // a copy that the caller is free to sort or filter, code that only reads the outputs inside the service uses
+    // getOutputsSnapshot
     public List<BranchOutput<?>> getBrancheOutputs() {
-        List<BranchOutput<?>> outputs = new ArrayList<>();
-        branchOutputs.values().forEach(o -> outputs.addAll(o.getAll()));
-        return outputs;
+        return new ArrayList<>(branchOutputs.getAll());
+    }
+
+    // unmodifiable, the same list is returned until another output is added
+    List<BranchOutput<?>> getOutputsSnapshot() {
+        return branchOutputs.getAll();
     }
 
     @SuppressWarnings("unchecked")
@@ -81,6 +91,24 @@ public class OperationContext {
                 .build());
     }
 
+    Response loopBranch(String branchId, Object loopData, Iterator<?> iterator, int concurrency,
+            Consumer<BranchOutput<?>> consumer) {
+        return service.loopBranch(Loop.builder()
+                .context(new OperationContext(service, request))
+                .branchId(branchId)
+                .loopData(loopData)
+                .iterator(iterator)
+                .concurrency(concurrency)
+                .consumer(consumer)
+                .input(branchInput)
+                .build());
+    }
+
+    ServiceConfig getServiceConfig() {
+        ServiceConfig config = service.getConfig();
+        return config != null ? config : ServiceConfig.DEFAULT;
+    }
+
     public String getTraceId() {
         return request.getTraceId();
     }
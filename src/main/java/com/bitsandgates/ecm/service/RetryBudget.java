@@ -0,0 +1,81 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Caps the share of work spent on retries. Every request deposits a fraction of a retry and every retry withdraws a
+// whole one, so during an outage retries stop once the balance is spent instead of multiplying the load.
+public interface RetryBudget {
+
+    void onRequest();
+
+    boolean tryAcquireRetry();
+
+    static RetryBudget unlimited() {
+        return Unlimited.INSTANCE;
+    }
+
+    static RetryBudget ratio(double retriesPerRequest, int maxBalance) {
+        return new TokenBucket(retriesPerRequest, maxBalance);
+    }
+
+    class Unlimited implements RetryBudget {
+
+        private static final Unlimited INSTANCE = new Unlimited();
+
+        @Override
+        public void onRequest() {
+        }
+
+        @Override
+        public boolean tryAcquireRetry() {
+            return true;
+        }
+    }
+
+    class TokenBucket implements RetryBudget {
+
+        // balance is kept in thousandths of a retry
+        private static final long SCALE = 1000;
+
+        private final long deposit;
+
+        private final long maxBalance;
+
+        private final AtomicLong balance;
+
+        TokenBucket(double retriesPerRequest, int maxBalance) {
+            if (retriesPerRequest < 0 || maxBalance < 1) {
+                throw new IllegalArgumentException(
+                        String.format("Invalid retry budget ratio [%s] max balance [%d]", retriesPerRequest, maxBalance));
+            }
+            this.deposit = Math.round(retriesPerRequest * SCALE);
+            this.maxBalance = maxBalance * SCALE;
+            this.balance = new AtomicLong(this.maxBalance);
+        }
+
+        @Override
+        public void onRequest() {
+            balance.accumulateAndGet(deposit, (current, amount) -> Math.min(current + amount, maxBalance));
+        }
+
+        @Override
+        public boolean tryAcquireRetry() {
+            long current;
+            do {
+                current = balance.get();
+                if (current < SCALE) {
+                    return false;
+                }
+            } while (!balance.compareAndSet(current, current - SCALE));
+            return true;
+        }
+    }
+}
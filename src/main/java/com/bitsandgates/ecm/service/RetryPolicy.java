@@ -0,0 +1,97 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.service;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.bitsandgates.ecm.annotation.Backoff;
+
+import lombok.RequiredArgsConstructor;
+
+public interface RetryPolicy {
+
+    // retryCount is 1 before the first retry, previousDelayMillis is 0 before the first retry
+    long getDelayMillis(int retryCount, long previousDelayMillis);
+
+    static RetryPolicy immediate() {
+        return fixed(0);
+    }
+
+    static RetryPolicy fixed(long delayMillis) {
+        return new Fixed(delayMillis);
+    }
+
+    static RetryPolicy exponential(long baseDelayMillis, long maxDelayMillis) {
+        return new Exponential(baseDelayMillis, maxDelayMillis);
+    }
+
+    static RetryPolicy decorrelatedJitter(long baseDelayMillis, long maxDelayMillis) {
+        return new DecorrelatedJitter(baseDelayMillis, maxDelayMillis);
+    }
+
+    static RetryPolicy of(Backoff backoff) {
+        long max = backoff.maxDelayMillis() > 0 ? backoff.maxDelayMillis() : Long.MAX_VALUE;
+        switch (backoff.policy()) {
+        case FIXED:
+            return fixed(backoff.delayMillis());
+        case DECORRELATED_JITTER:
+            return decorrelatedJitter(backoff.delayMillis(), max);
+        default:
+            return exponential(backoff.delayMillis(), max);
+        }
+    }
+
+    @RequiredArgsConstructor
+    class Fixed implements RetryPolicy {
+
+        private final long delayMillis;
+
+        @Override
+        public long getDelayMillis(int retryCount, long previousDelayMillis) {
+            return delayMillis;
+        }
+    }
+
+    @RequiredArgsConstructor
+    class Exponential implements RetryPolicy {
+
+        private final long baseDelayMillis;
+
+        private final long maxDelayMillis;
+
+        @Override
+        public long getDelayMillis(int retryCount, long previousDelayMillis) {
+            int shift = Math.min(Math.max(retryCount - 1, 0), 62);
+            long delay = baseDelayMillis << shift;
+            return delay < 0 || delay >>> shift != baseDelayMillis ? maxDelayMillis : Math.min(delay, maxDelayMillis);
+        }
+    }
+
+    // Each delay is drawn between the base delay and three times the previous one, which spreads out retries of
+    // operations that failed at the same time
+    @RequiredArgsConstructor
+    class DecorrelatedJitter implements RetryPolicy {
+
+        private final long baseDelayMillis;
+
+        private final long maxDelayMillis;
+
+        @Override
+        public long getDelayMillis(int retryCount, long previousDelayMillis) {
+            long previous = Math.max(previousDelayMillis, baseDelayMillis);
+            long upper = previous > maxDelayMillis / 3 ? maxDelayMillis : previous * 3;
+            if (upper <= baseDelayMillis) {
+                return Math.min(baseDelayMillis, maxDelayMillis);
+            }
+            // without a cap the upper bound saturates at Long.MAX_VALUE, which is then excluded
+            long bound = upper == Long.MAX_VALUE ? upper : upper + 1;
+            return Math.min(ThreadLocalRandom.current().nextLong(baseDelayMillis, bound), maxDelayMillis);
+        }
+    }
+}
@@ -8,13 +8,30 @@ LICENSE file in the root directory of this source tree.
 
 package com.bitsandgates.ecm.service;
 
+import static java.util.Collections.emptyList;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 
 import com.bitsandgates.ecm.domain.Request;
 import com.bitsandgates.ecm.domain.Response;
+import com.bitsandgates.ecm.metrics.CriticalPathReport;
+import com.bitsandgates.ecm.metrics.OperationSnapshot;
+import com.bitsandgates.ecm.metrics.ServiceListener;
+import com.bitsandgates.ecm.metrics.ServiceListener.Stage;
+import com.bitsandgates.ecm.store.BranchOutputStore;
 
 import lombok.AccessLevel;
 import lombok.Getter;
@@ -30,15 +47,56 @@ public class Service {
     @Getter(AccessLevel.PACKAGE)
     private final ThrottledExecutorService throttledExecutorService;
 
+    @Getter(AccessLevel.PACKAGE)
+    private final ServiceConfig config;
+
     private final int maxTries;
 
+    private final RetryPolicy retryPolicy;
+
+    private final RetryBudget retryBudget;
+
+    private final ScheduledExecutorService retryScheduler;
+
+    private final BranchOutputStore store;
+
+    private final ServiceListener listener;
+
+    // null unless ServiceConfig.trackInFlight is set
+    @Getter(AccessLevel.PACKAGE)
+    private final InFlightRegistry inFlightRegistry;
+
     private Map<String, Operation> operations = new HashMap<>();
 
-    // Executors.newCachedThreadPool() recommended
+    // Executors.newCachedThreadPool() recommended, or Service.newVirtualThreadExecutor() on JDK 21 and later
     public Service(ExecutorService executorService, int maxTries) {
+        this(executorService, ServiceConfig.builder().maxTries(maxTries).build());
+    }
+
+    public Service(ExecutorService executorService, ServiceConfig config) {
         this.executorService = executorService;
         this.throttledExecutorService = new ThrottledExecutorService(executorService);
-        this.maxTries = maxTries;
+        this.config = config;
+        this.maxTries = config.getMaxTries();
+        this.retryPolicy = config.getRetryPolicy();
+        this.retryBudget = config.getRetryBudget();
+        this.retryScheduler = config.getRetryScheduler() != null ? config.getRetryScheduler() : DefaultRetryScheduler.INSTANCE;
+        this.store = config.getBranchOutputStore();
+        this.listener = config.getListener();
+        this.inFlightRegistry = config.isTrackInFlight() ? new InFlightRegistry() : null;
+    }
+
+    // Branches, loop iterations and loop throttling all run on the service executor, so with this executor blocked
+    // branches do not hold on to platform threads. Looked up reflectively to keep the Java 8 baseline.
+    public static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            throw new UnsupportedOperationException(
+                    String.format("Virtual threads are not supported by Java [%s]", System.getProperty("java.version")), e);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
     }
 
     void addOperation(Operation operation) {
@@ -48,33 +106,220 @@ public class Service {
         operations.put(operation.getId(), operation);
     }
 
+    // waits for processAsync, so a delayed retry is scheduled rather than slept on the calling thread
     public Response process(Request request) {
+        return Utils.getResult(processAsync(request));
+    }
+
+    public CompletableFuture<Response> processAsync(Request request) {
         Operation operation = Optional.ofNullable(operations.get(request.getOperatonId())).orElseThrow(IllegalArgumentException::new);
-        Response response = null;
-        for (int i = 0; i < maxTries; i++) {
-            response = operation.execute(new OperationContext(this, request));
+        retryBudget.onRequest();
+        store.started(request);
+        return processAsync(operation, request, 0, 0).whenComplete((response, e) -> store.completed(request));
+    }
+
+    // empty if the operation or branch does not exist or the branch is not hedged
+    public Optional<HedgeMetrics> getHedgeMetrics(String operationId, String branchId) {
+        return Optional.ofNullable(operations.get(operationId)).flatMap(operation -> operation.getHedgeMetrics(branchId));
+    }
+
+    // empty if the operation does not exist, counts stay at 0 unless ServiceConfig.criticalPath is set
+    public Optional<CriticalPathReport> getCriticalPathReport(String operationId) {
+        return Optional.ofNullable(operations.get(operationId)).map(Operation::getCriticalPathReport);
+    }
+
+    // Tries of operations and loop branches running now, longest running first; empty unless ServiceConfig.trackInFlight
+    // is set. A try of a loop branch is listed along with the try of the operation that called it.
+    public List<OperationSnapshot> getInFlightOperations() {
+        return inFlightRegistry != null ? inFlightRegistry.snapshot() : emptyList();
+    }
+
+    // Resumes the operations the BranchOutputStore has as started but not completed, typically after a crash. Branches
+    // whose outputs were journaled are not executed again, unless they asked for a retry or are not deterministic.
+    public List<CompletableFuture<Response>> recover() {
+        List<CompletableFuture<Response>> responses = new ArrayList<>();
+        for (Request request : store.incomplete()) {
+            if (operations.containsKey(request.getOperatonId())) {
+                responses.add(processAsync(request));
+            } else {
+                log.warn(String.format("Cannot recover trace [%s], unknown operationId [%s]", request.getTraceId(),
+                        request.getOperatonId()));
+            }
+        }
+        return responses;
+    }
+
+    private CompletableFuture<Response> processAsync(Operation operation, Request request, int tries, long previousDelay) {
+        CompletableFuture<Response> future;
+        Object event = FlightRecorderEvents.TRY.begin();
+        long start = tryStarted(operation.getId(), operation.getId());
+        try {
+            future = operation.executeAsync(new OperationContext(this, request));
+        } catch (Exception e) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+        }
+        return future.thenCompose(response -> {
+            tryFinished(request, null, event, start, response);
             if (response.getRetry() == null) {
-                return response;
+                return completedFuture(response);
             }
-            request = request.toBuilder().retry(response.getRetry()).retryCount(i + 1).build();
+            Request retryRequest = request.toBuilder().retry(response.getRetry()).retryCount(tries + 1).build();
+            if (tries + 1 < maxTries && retryBudget.tryAcquireRetry()) {
+                long delay = operation.getRetryDelayMillis(response.getRetry(), retryPolicy, tries + 1, previousDelay);
+                if (!isPastDeadline(retryRequest, delay)) {
+                    long delaying = timed() ? System.nanoTime() : 0;
+                    return delay(delay).thenCompose(__ -> {
+                        trySubmitted(operation.getId(), operation.getId(), delaying);
+                        return processAsync(operation, retryRequest, tries + 1, delay);
+                    });
+                }
+            }
+            onErrorAfterRetries(retryRequest, response, tries + 1);
+            return completedFuture(response);
+        });
+    }
+
+    // the retry waits on the scheduler without holding a thread, then moves back onto the service executor
+    CompletableFuture<Void> delay(long millis) {
+        if (millis <= 0) {
+            return completedFuture(null);
         }
-        if (response.getRetry() != null) {
-            onErrorAfterRetries(request, response, maxTries);
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        retryScheduler.schedule(() -> {
+            try {
+                executorService.execute(() -> future.complete(null));
+            } catch (RejectedExecutionException e) {
+                future.completeExceptionally(e);
+            }
+        }, millis, MILLISECONDS);
+        return future;
+    }
+
+    // branch timeouts and operation deadlines; like delay, the task itself runs on the service executor, or on the
+    // scheduler thread if the executor rejects it, which is only meant for tasks that are cheap
+    ScheduledFuture<?> schedule(Runnable task, long millis) {
+        return schedule(task, millis, true);
+    }
+
+    // hedges invoke a whole branch, so a hedge the executor rejects is skipped rather than run on the scheduler thread,
+    // which is shared by every service
+    ScheduledFuture<?> scheduleOrSkip(Runnable task, long millis) {
+        return schedule(task, millis, false);
+    }
+
+    private ScheduledFuture<?> schedule(Runnable task, long millis, boolean runIfRejected) {
+        return retryScheduler.schedule(() -> {
+            try {
+                executorService.execute(task);
+            } catch (RejectedExecutionException e) {
+                if (runIfRejected) {
+                    task.run();
+                }
+            }
+        }, Math.max(millis, 0), MILLISECONDS);
+    }
+
+    // a retry that could only start after the deadline of the request is not attempted
+    private static boolean isPastDeadline(Request request, long delayMillis) {
+        return request.getDeadlineMillis() > 0 && System.currentTimeMillis() + delayMillis >= request.getDeadlineMillis();
+    }
+
+    private boolean timed() {
+        return listener != ServiceListener.none();
+    }
+
+    // a try is submitted once its retry delay has passed, the first try is only started and finished
+    private void trySubmitted(String operationId, String id, long delaying) {
+        if (timed()) {
+            Listeners.submitted(listener, Stage.TRY, operationId, id, System.nanoTime() - delaying);
         }
-        return response;
     }
 
+    private long tryStarted(String operationId, String id) {
+        if (!timed()) {
+            return 0;
+        }
+        Listeners.started(listener, Stage.TRY, operationId, id, 0);
+        return System.nanoTime();
+    }
+
+    // the branch id is set for a try of a loop branch
+    private void tryFinished(Request request, String branchId, Object event, long start, Response response) {
+        String operationId = request.getOperatonId();
+        if (timed()) {
+            Listeners.finished(listener, Stage.TRY, operationId, branchId != null ? branchId : operationId, System.nanoTime() - start,
+                    response.getRetry() != null);
+        }
+        FlightRecorderEvents.TRY.commit(event, operationId, branchId, request.getTraceId(), request.getRetryCount(),
+                FlightRecorderEvents.outcome(response));
+    }
+
+    // The branch that runs a loop waits for its response. A delayed loop retry is scheduled like the retries of
+    // processAsync instead of sleeping, and is not started once the waiting branch is interrupted. A loop is part of
+    // the request of its operation, so it does not add to the retry budget.
+    @SneakyThrows
     Response loopBranch(Loop loop) {
         Operation operation = Optional.ofNullable(operations.get(loop.getOperationId())).orElseThrow(IllegalArgumentException::new);
-        Response response = null;
-        for (int i = 0; i < maxTries; i++) {
+        CompletableFuture<Response> response = new CompletableFuture<>();
+        loopBranch(operation, loop, 0, 0, response);
+        try {
+            return response.get();
+        } catch (ExecutionException e) {
+            throw e.getCause();
+        } catch (InterruptedException e) {
+            response.cancel(false);
+            throw e;
+        }
+    }
+
+    private void loopBranch(Operation operation, Loop loop, int tries, long previousDelay, CompletableFuture<Response> result) {
+        Response response;
+        try {
+            Object event = FlightRecorderEvents.TRY.begin();
+            long start = tryStarted(operation.getId(), loop.getBranchId());
             response = operation.loopBranch(loop);
-            if (response.getRetry() == null) {
-                return response;
+            tryFinished(loop.getContext().getRequest(), loop.getBranchId(), event, start, response);
+        } catch (Exception e) {
+            result.completeExceptionally(e);
+            return;
+        }
+        if (response.getRetry() == null) {
+            result.complete(response);
+            return;
+        }
+        // each try collects its outputs in a new context, which also carries the retry count to the loop branch
+        Request request = loop.getContext().getRequest().toBuilder().retryCount(tries + 1).build();
+        Loop retryLoop = loop.toBuilder()
+                .retry(response.getRetry())
+                .retryCount(tries + 1)
+                .context(new OperationContext(this, request))
+                .build();
+        if (tries + 1 < maxTries && retryBudget.tryAcquireRetry()) {
+            long delay = operation.getLoopRetryDelayMillis(response.getRetry(), retryPolicy, tries + 1, previousDelay);
+            if (!isPastDeadline(request, delay)) {
+                long delaying = timed() ? System.nanoTime() : 0;
+                delay(delay).whenComplete((__, e) -> {
+                    if (e != null) {
+                        result.completeExceptionally(e);
+                    } else if (!result.isDone()) {
+                        trySubmitted(operation.getId(), loop.getBranchId(), delaying);
+                        loopBranch(operation, retryLoop, tries + 1, delay, result);
+                    }
+                });
+                return;
             }
-            loop = loop.toBuilder().retry(response.getRetry()).retryCount(i + 1).build();
         }
-        return response;
+        result.complete(response);
+    }
+
+    private static class DefaultRetryScheduler {
+
+        private static final ScheduledExecutorService INSTANCE = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ecm-retry-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     @SneakyThrows
@@ -0,0 +1,76 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.service;
+
+import java.util.concurrent.ScheduledExecutorService;
+
+import com.bitsandgates.ecm.metrics.ServiceListener;
+import com.bitsandgates.ecm.store.BranchOutputStore;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+
+@Getter
+@ToString
+@Builder(toBuilder = true)
+public class ServiceConfig {
+
+    static final ServiceConfig DEFAULT = ServiceConfig.builder().build();
+
+    @Builder.Default
+    private int maxTries = 1;
+
+    // used by loops that specify neither a concurrency nor a @LoopBranch concurrency
+    @Builder.Default
+    private int loopConcurrency = 10;
+
+    // upper bound for the loopConcurrency default and for adaptive loops; a concurrency passed to loopBranch or set with
+    // @LoopBranch is used as is, and an adaptive loop may always grow up to it
+    @Builder.Default
+    private int maxLoopConcurrency = 10;
+
+    // times a branch is run within one try of the operation; above 1 a failed branch is retried in place while the
+    // outputs of the other branches are kept, and its dependants wait for the retry
+    @Builder.Default
+    private int branchTries = 1;
+
+    // delay between tries of an operation or loop, branches can override it with @Backoff
+    @Builder.Default
+    private RetryPolicy retryPolicy = RetryPolicy.immediate();
+
+    @Builder.Default
+    private RetryBudget retryBudget = RetryBudget.unlimited();
+
+    // waits for delayed retries of processAsync, branch timeouts and request deadlines, a shared daemon scheduler is used
+    // when not set
+    private ScheduledExecutorService retryScheduler;
+
+    // journals requests, branch inputs and outputs so that operations interrupted by a crash can be recovered
+    @Builder.Default
+    private BranchOutputStore branchOutputStore = BranchOutputStore.none();
+
+    // how stack traces of failed branches are captured, see TraceMode
+    @Builder.Default
+    private TraceMode traceMode = TraceMode.FULL;
+
+    // latencies of branches, loop iterations, tries and after branches, HistogramRecorder keeps percentiles of them
+    @Builder.Default
+    private ServiceListener listener = ServiceListener.none();
+
+    // records when each branch starts and ends to find the critical path of every try, see OperationContext.getCriticalPath
+    // and Service.getCriticalPathReport
+    private boolean criticalPath;
+
+    // keeps the tries in flight and the state of their branches, see Service.getInFlightOperations
+    private boolean trackInFlight;
+
+    // reports branches that run longer than their threshold with a stack sample, see Watchdog
+    private Watchdog watchdog;
+}
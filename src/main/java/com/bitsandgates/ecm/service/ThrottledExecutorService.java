@@ -8,72 +8,185 @@ LICENSE file in the root directory of this source tree.
 
 package com.bitsandgates.ecm.service;
 
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
 
 import lombok.RequiredArgsConstructor;
 
 @RequiredArgsConstructor
 public class ThrottledExecutorService {
 
-    private static final Runnable killSignal = () -> {
-    };
-
     private final ExecutorService executorService;
 
-    public Runner newRunner(int size) {
-        return new Runner(size);
+    public Runner newRunner(int concurrency) {
+        return new Runner(ConcurrencyLimit.fixed(concurrency));
+    }
+
+    public Runner newRunner(ConcurrencyLimit limit) {
+        return new Runner(limit);
     }
 
-    public class Runner implements Runnable {
+    // Limits the number of tasks in flight on the underlying executor; a permit is taken on submission and only
+    // released when the task completes, so the submitting thread blocks while the runner is at capacity
+    public class Runner {
+
+        private final ConcurrencyLimit limit;
+
+        private final Permits permits;
+
+        private int permitCount;
 
-        private final BlockingQueue<Runnable> queue;
+        private final AtomicInteger inFlight = new AtomicInteger();
 
-        private AtomicBoolean stop = new AtomicBoolean();
+        private final AtomicInteger running = new AtomicInteger();
 
-        private Runner(int concurrency) {
-            queue = new ArrayBlockingQueue<>(concurrency, true);
-            executorService.execute(this);
+        private final AtomicLong completed = new AtomicLong();
+
+        // a lock rather than a monitor, so that a virtual thread waiting for the loop to drain does not pin its carrier
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private final Condition idle = lock.newCondition();
+
+        private volatile boolean stop;
+
+        private Runner(ConcurrencyLimit limit) {
+            this.limit = limit;
+            this.permitCount = Math.max(1, limit.getLimit());
+            this.permits = new Permits(permitCount);
         }
 
         public void run(Runnable r) throws InterruptedException {
-            if (!stop.get()) {
-                try {
-                    queue.put(r);
-                } catch (InterruptedException e) {
-                    stop.set(true);
-                    throw e;
-                }
-            } else {
+            submit(() -> {
+                r.run();
+                return true;
+            });
+        }
+
+        // The task reports whether it succeeded, which adaptive limits use along with its latency
+        public void submit(BooleanSupplier task) throws InterruptedException {
+            if (stop) {
                 throw new IllegalStateException("Runner is in [stopped] state");
             }
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                stop = true;
+                throw e;
+            }
+            inFlight.incrementAndGet();
+            try {
+                executorService.execute(() -> execute(task));
+            } catch (RuntimeException e) {
+                done();
+                throw e;
+            }
         }
 
-        public void close() {
-            if (!stop.get()) {
+        private void execute(BooleanSupplier task) {
+            running.incrementAndGet();
+            if (!limit.isAdaptive()) {
                 try {
-                    queue.put(killSignal);
-                } catch (InterruptedException e) {
-                    stop.set(true);
+                    task.getAsBoolean();
+                } finally {
+                    finished();
                 }
+                return;
+            }
+            long start = System.nanoTime();
+            boolean success = false;
+            try {
+                success = task.getAsBoolean();
+            } finally {
+                limit.onSample(System.nanoTime() - start, success);
+                resize(limit.getLimit());
+                finished();
             }
         }
 
-        public void run() {
-            while (!stop.get()) {
+        private void finished() {
+            running.decrementAndGet();
+            completed.incrementAndGet();
+            done();
+        }
+
+        private void done() {
+            permits.release();
+            if (inFlight.decrementAndGet() == 0) {
+                lock.lock();
                 try {
-                    Runnable r = queue.take();
-                    if (r == killSignal) {
-                        break;
-                    }
-                    executorService.execute(r);
-                } catch (InterruptedException e) {
-                    break;
+                    idle.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+
+        // Waits for every submitted task to complete. Interrupts are deferred until then, as the caller is
+        // about to read what the tasks produced.
+        public void awaitCompletion() {
+            lock.lock();
+            try {
+                while (inFlight.get() > 0) {
+                    // keeps the interrupt status for the caller
+                    idle.awaitUninterruptibly();
                 }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private synchronized void resize(int newLimit) {
+            newLimit = Math.max(1, newLimit);
+            int delta = newLimit - permitCount;
+            if (delta > 0) {
+                permits.release(delta);
+            } else if (delta < 0) {
+                permits.reducePermits(-delta);
             }
-            stop.set(true);
+            permitCount = newLimit;
+        }
+
+        public int getLimit() {
+            return limit.getLimit();
+        }
+
+        // tasks submitted to the executor that have not started yet
+        public int getQueued() {
+            return Math.max(inFlight.get() - running.get(), 0);
+        }
+
+        public int getRunning() {
+            return running.get();
+        }
+
+        public long getCompleted() {
+            return completed.get();
+        }
+
+        // whether a thread is waiting to submit while the runner is at capacity
+        public boolean isBlocked() {
+            return permits.hasQueuedThreads();
+        }
+
+        public void close() {
+            stop = true;
+        }
+    }
+
+    private static class Permits extends Semaphore {
+
+        Permits(int permits) {
+            super(permits);
+        }
+
+        @Override
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
         }
     }
 }
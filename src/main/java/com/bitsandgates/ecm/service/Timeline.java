@@ -0,0 +1,109 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.bitsandgates.ecm.metrics.BranchTiming;
+import com.bitsandgates.ecm.metrics.CriticalPath;
+
+// Start and end times of the branches of one try of an operation, see ServiceConfig.criticalPath. A branch starts when
+// it is first invoked, so in place retries and hedges count towards its latency, and ends when its result completes.
+class Timeline {
+
+    private final BranchGraph graph;
+
+    private final long origin = System.nanoTime();
+
+    // 0 until set, relative times are offset by one so that 0 is never a valid time
+    private final AtomicLongArray starts;
+
+    private final AtomicLongArray ends;
+
+    Timeline(BranchGraph graph) {
+        this.graph = graph;
+        this.starts = new AtomicLongArray(graph.size());
+        this.ends = new AtomicLongArray(graph.size());
+    }
+
+    void started(String branchId) {
+        int position = graph.positionOf(branchId);
+        if (position >= 0) {
+            starts.compareAndSet(position, 0, System.nanoTime() - origin + 1);
+        }
+    }
+
+    void ended(String branchId) {
+        ended(graph.positionOf(branchId));
+    }
+
+    void ended(int position) {
+        if (position >= 0) {
+            ends.compareAndSet(position, 0, System.nanoTime() - origin + 1);
+        }
+    }
+
+    // Each branch is ready when its last dependency ended. Going backwards from the end of the try, a branch has to
+    // end before any dependant would have to become ready, given the dependant's own latency; slack is the difference.
+    CriticalPath analyze(String operationId, String traceId) {
+        int size = graph.size();
+        long[] ready = new long[size];
+        long[] start = new long[size];
+        long[] end = new long[size];
+        boolean[] executed = new boolean[size];
+        int last = -1;
+        for (int i = 0; i < size; i++) {
+            for (int dependency : graph.getDependencies(i)) {
+                ready[i] = Math.max(ready[i], end[dependency]);
+            }
+            end[i] = Math.max(ends.get(i) - 1, ready[i]);
+            executed[i] = starts.get(i) > 0;
+            start[i] = executed[i] ? Math.min(Math.max(starts.get(i) - 1, ready[i]), end[i]) : end[i];
+            if (last < 0 || end[i] >= end[last]) {
+                last = i;
+            }
+        }
+        long duration = last >= 0 ? end[last] : 0;
+
+        long[] latestEnd = new long[size];
+        for (int i = size - 1; i >= 0; i--) {
+            latestEnd[i] = duration;
+            for (int dependant : graph.getDependants(i)) {
+                latestEnd[i] = Math.min(latestEnd[i], latestEnd[dependant] - (end[dependant] - ready[dependant]));
+            }
+        }
+
+        boolean[] critical = new boolean[size];
+        List<String> path = new ArrayList<>();
+        for (int i = last; i >= 0;) {
+            critical[i] = true;
+            path.add(0, graph.get(i).getId());
+            int previous = -1;
+            for (int dependency : graph.getDependencies(i)) {
+                if (previous < 0 || end[dependency] > end[previous]) {
+                    previous = dependency;
+                }
+            }
+            i = previous;
+        }
+
+        List<BranchTiming> timings = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            List<String> dependencies = new ArrayList<>();
+            for (int dependency : graph.getDependencies(i)) {
+                dependencies.add(graph.get(dependency).getId());
+            }
+            timings.add(new BranchTiming(graph.get(i).getId(), dependencies, graph.getLevel(i), ready[i], start[i], end[i],
+                    Math.max(latestEnd[i] - end[i], 0), critical[i], executed[i]));
+        }
+        return new CriticalPath(operationId, traceId, duration, path, timings);
+    }
+}
@@ -0,0 +1,22 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.service;
+
+// How BranchError traces are captured when a branch throws
+public enum TraceMode {
+
+    // the full stack trace, rendered when it is first read
+    FULL,
+
+    // the exception classes and top frames of the exception and its causes, shared by all errors with the same
+    // fingerprint so that a failure storm renders each distinct failure once
+    TRUNCATED,
+
+    NONE
+}
@@ -13,23 +13,24 @@ import static java.util.Collections.emptyList;
 import static java.util.concurrent.CompletableFuture.allOf;
 import static java.util.stream.Collectors.toList;
 
-import java.io.PrintWriter;
-import java.io.StringWriter;
 import java.lang.reflect.Method;
 import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.function.Function;
 
 import com.bitsandgates.ecm.ProxyFactory;
 import com.bitsandgates.ecm.annotation.AfterBranches;
+import com.bitsandgates.ecm.annotation.Backoff;
 import com.bitsandgates.ecm.annotation.BeforeBranches;
 import com.bitsandgates.ecm.annotation.LoopBranch;
 import com.bitsandgates.ecm.domain.BranchInput;
 import com.bitsandgates.ecm.domain.BranchOutput;
 import com.bitsandgates.ecm.domain.OperationValidationException;
 import com.bitsandgates.ecm.domain.Response;
+import com.bitsandgates.ecm.service.Invokers.ContextMethod;
 
 import lombok.SneakyThrows;
 import lombok.experimental.UtilityClass;
@@ -43,8 +44,17 @@ class Utils {
     }
 
     @SneakyThrows
-    static Object invoke(Object obj, Method method, Object... args) {
-        return method.invoke(obj, args);
+    static <T> T getResult(CompletableFuture<T> future) {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw e.getCause();
+        }
+    }
+
+    @SneakyThrows
+    private static Object invoke(ContextMethod method, Object obj, OperationContext context) {
+        return method.invoke(obj, context);
     }
 
     private static void validateBranchMethodSignature(Method method) {
@@ -96,6 +106,33 @@ class Utils {
         }
     }
 
+    private static void validateChunkLoopBranchMethodSignature(Method method) {
+        if (!List.class.isAssignableFrom(method.getReturnType())) {
+            throw new OperationValidationException(
+                    String.format("Invalid [chunk branch] return type [%s] must be assignable to [List]",
+                            method.getReturnType().getSimpleName()));
+        }
+        if (method.getParameterCount() != 4) {
+            throw new OperationValidationException(
+                    String.format("Invalid [chunk branch] parameter count [%d] must be [4]", method.getParameterCount()));
+        }
+        if (!BranchContext.class.isAssignableFrom(method.getParameters()[0].getType())) {
+            throw new OperationValidationException(
+                    String.format("Invalid [chunk branch] parameter type [%s] must be assignable to [BranchContext]",
+                            method.getParameters()[0].getType().getSimpleName()));
+        }
+        if (!method.getParameters()[2].getType().isAssignableFrom(List.class)) {
+            throw new OperationValidationException(
+                    String.format("Invalid [chunk branch] parameter type [%s] must be assignable from [List]",
+                            method.getParameters()[2].getType().getSimpleName()));
+        }
+        if (!int.class.isAssignableFrom(method.getParameters()[3].getType())) {
+            throw new OperationValidationException(
+                    String.format("Invalid [chunk branch] parameter type [%s] must be assignable to [int]",
+                            method.getParameters()[3].getType().getSimpleName()));
+        }
+    }
+
     private static void validateBeforeBranchesMethodSignature(Method method) {
         if (!BranchInput.class.isAssignableFrom(method.getReturnType())) {
             throw new OperationValidationException(
@@ -139,29 +176,100 @@ class Utils {
                 branchId = method.getName();
             }
             List<String> dependencies = asList(branch.dependencies());
-            return Optional.of(new Branch(branchId, getObject(proxyFactory, obj), method, dependencies, branch.deterministic()));
+            return Optional.of(Branch.builder()
+                    .id(branchId)
+                    .impl(getObject(proxyFactory, obj))
+                    .exe(Invokers.branch(method))
+                    .dependencies(dependencies)
+                    .deterministic(branch.deterministic())
+                    .retryPolicy(getRetryPolicy(method))
+                    .timeoutMillis(getTimeoutMillis(branch))
+                    .hedge(getHedge(branch))
+                    .slowAfterMillis(branch.slowAfterMillis())
+                    .slowLatencies(getSlowLatencies(branch))
+                    .build());
         }
         return Optional.empty();
     }
 
+    private static long getTimeoutMillis(com.bitsandgates.ecm.annotation.Branch branch) {
+        if (branch.timeoutMillis() < 0) {
+            throw new OperationValidationException(
+                    String.format("Invalid [branch] timeout [%d] must not be negative", branch.timeoutMillis()));
+        }
+        return branch.timeoutMillis();
+    }
+
+    private static Hedge getHedge(com.bitsandgates.ecm.annotation.Branch branch) {
+        if (branch.hedgeAfterMillis() < 0 || branch.hedgeAfterPercentile() < 0 || branch.hedgeAfterPercentile() >= 100) {
+            throw new OperationValidationException(
+                    String.format("Invalid [branch] hedge after [%d] ms percentile [%s] must not be negative, percentile below 100",
+                            branch.hedgeAfterMillis(), branch.hedgeAfterPercentile()));
+        }
+        if (branch.hedgeAfterMillis() == 0 && branch.hedgeAfterPercentile() == 0) {
+            return null;
+        }
+        return new Hedge(branch.hedgeAfterMillis(), branch.hedgeAfterPercentile());
+    }
+
+    private static LatencyWindow getSlowLatencies(com.bitsandgates.ecm.annotation.Branch branch) {
+        if (branch.slowAfterMillis() < 0 || branch.slowAfterPercentile() < 0 || branch.slowAfterPercentile() >= 100) {
+            throw new OperationValidationException(
+                    String.format("Invalid [branch] slow after [%d] ms percentile [%s] must not be negative, percentile below 100",
+                            branch.slowAfterMillis(), branch.slowAfterPercentile()));
+        }
+        return branch.slowAfterPercentile() > 0 ? new LatencyWindow(branch.slowAfterPercentile()) : null;
+    }
+
     static Optional<Branch> createLoopBranch(Object obj, Method method, ProxyFactory proxyFactory) {
         LoopBranch branch = method.getAnnotation(LoopBranch.class);
         if (branch != null) {
-            validateLoopBranchMethodSignature(method);
+            boolean chunked = branch.chunkSize() > 0;
+            if (chunked) {
+                validateChunkLoopBranchMethodSignature(method);
+            } else {
+                validateLoopBranchMethodSignature(method);
+            }
             String branchId = branch.branchId();
             if (branchId.length() == 0) {
                 branchId = method.getName();
             }
-            return Optional.of(new Branch(branchId, getObject(proxyFactory, obj), method, emptyList(), branch.deterministic()));
+            return Optional.of(Branch.builder()
+                    .id(branchId)
+                    .impl(getObject(proxyFactory, obj))
+                    .loopExe(chunked ? null : Invokers.loopBranch(method))
+                    .chunkExe(chunked ? Invokers.chunk(method) : null)
+                    .chunkSize(branch.chunkSize())
+                    .dependencies(emptyList())
+                    .deterministic(branch.deterministic())
+                    .concurrency(branch.concurrency())
+                    .adaptiveConcurrency(branch.adaptiveConcurrency())
+                    .retryPolicy(getRetryPolicy(method))
+                    .build());
         }
         return Optional.empty();
     }
 
+    private static RetryPolicy getRetryPolicy(Method method) {
+        Backoff backoff = method.getAnnotation(Backoff.class);
+        if (backoff == null) {
+            return null;
+        }
+        if (backoff.delayMillis() < 0 || backoff.maxDelayMillis() < 0) {
+            throw new OperationValidationException(
+                    String.format("Invalid [backoff] delay [%d] max delay [%d] must not be negative", backoff.delayMillis(),
+                            backoff.maxDelayMillis()));
+        }
+        return RetryPolicy.of(backoff);
+    }
+
     static Function<OperationContext, BranchInput<?>> createBeforeBranches(Object obj, Method method, ProxyFactory proxyFactory) {
         BeforeBranches before = method.getAnnotation(com.bitsandgates.ecm.annotation.BeforeBranches.class);
         if (before != null) {
             validateBeforeBranchesMethodSignature(method);
-            return (ctx) -> (BranchInput<?>) invoke(getObject(proxyFactory, obj), method, ctx);
+            Object target = getObject(proxyFactory, obj);
+            ContextMethod exe = Invokers.context(method);
+            return (ctx) -> (BranchInput<?>) invoke(exe, target, ctx);
         }
         return null;
     }
@@ -170,7 +278,9 @@ class Utils {
         AfterBranches after = method.getAnnotation(com.bitsandgates.ecm.annotation.AfterBranches.class);
         if (after != null) {
             validateAfterBranchesMethodSignature(method);
-            return (ctx) -> (Response) invoke(getObject(proxyFactory, obj), method, ctx);
+            Object target = getObject(proxyFactory, obj);
+            ContextMethod exe = Invokers.context(method);
+            return (ctx) -> (Response) invoke(exe, target, ctx);
         }
         return null;
     }
@@ -178,10 +288,4 @@ class Utils {
     private static Object getObject(ProxyFactory proxyFactory, Object obj) {
         return proxyFactory != null ? proxyFactory.proxy(obj) : obj;
     }
-
-    static String traceToSring(Throwable e) {
-        StringWriter sw = new StringWriter();
-        e.printStackTrace(new PrintWriter(sw));
-        return sw.toString();
-    }
 }
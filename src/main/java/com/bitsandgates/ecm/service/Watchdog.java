@@ -0,0 +1,159 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.service;
+
+import static java.util.Arrays.asList;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import com.bitsandgates.ecm.metrics.SlowBranchEvent;
+import com.bitsandgates.ecm.metrics.SlowBranchHandler;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+// Watches running branches and reports each run that exceeds its threshold once, with a stack sample of the thread that
+// runs it, to the handler and as a JFR event. The threshold of a branch is the @Branch slowAfterPercentile of its
+// recent latencies, its slowAfterMillis or the watchdog's slowAfterMillis, in that order; branches without one are not
+// watched. Loop iterations are not watched. The daemon thread that scans every intervalMillis is started on first use,
+// a watchdog can be shared by services.
+@Slf4j
+@Builder
+public class Watchdog {
+
+    @Getter
+    @Builder.Default
+    private final long intervalMillis = 100;
+
+    // for branches that do not set one, 0 to only watch those that do
+    @Getter
+    private final long slowAfterMillis;
+
+    @Getter
+    @Builder.Default
+    private final int maxFrames = 64;
+
+    @Getter
+    @Builder.Default
+    private final SlowBranchHandler handler = SlowBranchHandler.log();
+
+    private final Set<Watch> running = ConcurrentHashMap.newKeySet();
+
+    private final AtomicReference<ScheduledExecutorService> scanner = new AtomicReference<>();
+
+    // null if the branch is not watched and has no latencies to record
+    Watch start(Branch branch, BranchContext ctx) {
+        long threshold = thresholdMillis(branch);
+        if (threshold <= 0 && branch.getSlowLatencies() == null) {
+            return null;
+        }
+        Watch watch = new Watch(Thread.currentThread(), branch, ctx.getOperationContext(), System.nanoTime(), threshold);
+        if (threshold > 0) {
+            running.add(watch);
+            startScanner();
+        }
+        return watch;
+    }
+
+    void stop(Watch watch) {
+        if (watch == null) {
+            return;
+        }
+        running.remove(watch);
+        if (watch.branch.getSlowLatencies() != null) {
+            watch.branch.getSlowLatencies().record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - watch.startNanos));
+        }
+    }
+
+    public void close() {
+        ScheduledExecutorService executor = scanner.getAndSet(null);
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private long thresholdMillis(Branch branch) {
+        long percentile = branch.getSlowLatencies() != null ? branch.getSlowLatencies().getPercentileMillis() : 0;
+        return percentile > 0 ? percentile : branch.getSlowAfterMillis() > 0 ? branch.getSlowAfterMillis() : slowAfterMillis;
+    }
+
+    private void startScanner() {
+        if (scanner.get() != null) {
+            return;
+        }
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ecm-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (scanner.compareAndSet(null, executor)) {
+            executor.scheduleWithFixedDelay(this::scan, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            executor.shutdown();
+        }
+    }
+
+    private void scan() {
+        long now = System.nanoTime();
+        for (Watch watch : running) {
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(now - watch.startNanos);
+            if (watch.reported || elapsedMillis < watch.thresholdMillis) {
+                continue;
+            }
+            StackTraceElement[] stack = watch.thread.getStackTrace();
+            if (!running.contains(watch)) {
+                // the branch returned meanwhile, the sample is of whatever its thread runs next
+                continue;
+            }
+            watch.reported = true;
+            report(watch, elapsedMillis, asList(stack).subList(0, Math.min(stack.length, maxFrames)));
+        }
+    }
+
+    private void report(Watch watch, long elapsedMillis, List<StackTraceElement> stack) {
+        SlowBranchEvent event = new SlowBranchEvent(watch.context.getTraceId(), watch.context.getOperationId(),
+                watch.branch.getId(), watch.thread.getName(), elapsedMillis, watch.thresholdMillis, stack);
+        try {
+            handler.slow(event);
+        } catch (RuntimeException e) {
+            log.error("Slow branch handler failed", e);
+        }
+        FlightRecorderEvents.SLOW_BRANCH.commit(FlightRecorderEvents.SLOW_BRANCH.begin(), event.getOperationId(),
+                event.getBranchId(), event.getTraceId(), event.getThreadName(), TimeUnit.MILLISECONDS.toNanos(elapsedMillis),
+                TimeUnit.MILLISECONDS.toNanos(watch.thresholdMillis),
+                stack.stream().map(StackTraceElement::toString).collect(Collectors.joining(System.lineSeparator())));
+    }
+
+    // compared by identity, one per run of a branch
+    @RequiredArgsConstructor
+    static class Watch {
+
+        private final Thread thread;
+
+        private final Branch branch;
+
+        private final OperationContext context;
+
+        private final long startNanos;
+
+        private final long thresholdMillis;
+
+        // only read and written by the scanner
+        private boolean reported;
+    }
+}
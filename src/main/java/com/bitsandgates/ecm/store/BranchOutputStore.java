@@ -0,0 +1,64 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.store;
+
+import static java.util.Collections.emptyList;
+
+import java.util.List;
+
+import com.bitsandgates.ecm.domain.BranchInput;
+import com.bitsandgates.ecm.domain.BranchOutput;
+import com.bitsandgates.ecm.domain.Request;
+
+// Journals the progress of operations so that operations interrupted by a crash can be resumed with
+// Service.recover(). Implementations are called from branch threads and should not block on I/O.
+public interface BranchOutputStore {
+
+    void started(Request request);
+
+    void input(Request request, BranchInput<?> input);
+
+    void output(Request request, BranchOutput<?> output);
+
+    void completed(Request request);
+
+    // operations that were started but not completed, each as a request carrying a Retry with the input and outputs
+    // journaled so far, or as the original request when the input was not journaled
+    List<Request> incomplete();
+
+    static BranchOutputStore none() {
+        return None.INSTANCE;
+    }
+
+    class None implements BranchOutputStore {
+
+        private static final None INSTANCE = new None();
+
+        @Override
+        public void started(Request request) {
+        }
+
+        @Override
+        public void input(Request request, BranchInput<?> input) {
+        }
+
+        @Override
+        public void output(Request request, BranchOutput<?> output) {
+        }
+
+        @Override
+        public void completed(Request request) {
+        }
+
+        @Override
+        public List<Request> incomplete() {
+            return emptyList();
+        }
+    }
+}
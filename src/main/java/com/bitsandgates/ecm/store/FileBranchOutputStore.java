@@ -0,0 +1,296 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.store;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+
+import com.bitsandgates.ecm.domain.BranchInput;
+import com.bitsandgates.ecm.domain.BranchOutput;
+import com.bitsandgates.ecm.domain.Request;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+// Append-only journal file. Records are serialized on the calling thread and written by a single writer thread,
+// which forces everything queued since its last write to disk with one fsync (group commit), so concurrent branches
+// share the cost of an fsync rather than paying one each.
+//
+// Record: [int length][int crc32][byte type][utf key][java serialized payload], length and crc cover what follows them.
+// A torn record at the end of the file, left by a crash during a write, is truncated when the file is opened.
+@Slf4j
+public class FileBranchOutputStore implements BranchOutputStore, Closeable {
+
+    private static final byte STARTED = 1;
+
+    private static final byte INPUT = 2;
+
+    private static final byte OUTPUT = 3;
+
+    private static final byte COMPLETED = 4;
+
+    private static final int HEADER_SIZE = 8;
+
+    private static final int MAX_BATCH = 1024;
+
+    private static final Pending CLOSE = new Pending(null, null);
+
+    private final FileChannel channel;
+
+    private final List<Request> incomplete;
+
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+
+    private final Thread writer;
+
+    private volatile boolean closed;
+
+    @RequiredArgsConstructor
+    private static class Pending {
+
+        private final byte[] record;
+
+        private final CompletableFuture<Void> durable;
+    }
+
+    private FileBranchOutputStore(Path file, FileChannel channel, List<Request> incomplete) {
+        this.channel = channel;
+        this.incomplete = incomplete;
+        this.writer = new Thread(this::write, "ecm-journal-" + file.getFileName());
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    public static FileBranchOutputStore open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, CREATE, READ, WRITE);
+        try {
+            IncompleteOperations operations = new IncompleteOperations();
+            long end = replay(channel, operations);
+            if (end < channel.size()) {
+                log.warn(String.format("Truncating journal [%s] from [%d] to [%d] bytes", file, channel.size(), end));
+                channel.truncate(end);
+            }
+            channel.position(end);
+            return new FileBranchOutputStore(file, channel, operations.toRequests());
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void started(Request request) {
+        append(STARTED, request, request);
+    }
+
+    @Override
+    public void input(Request request, BranchInput<?> input) {
+        append(INPUT, request, input);
+    }
+
+    @Override
+    public void output(Request request, BranchOutput<?> output) {
+        append(OUTPUT, request, output);
+    }
+
+    @Override
+    public void completed(Request request) {
+        append(COMPLETED, request, null);
+    }
+
+    // operations that were incomplete when the journal was opened
+    @Override
+    public List<Request> incomplete() {
+        return incomplete;
+    }
+
+    // completes once everything appended so far is on disk
+    public CompletableFuture<Void> flush() {
+        CompletableFuture<Void> durable = new CompletableFuture<>();
+        enqueue(new Pending(new byte[0], durable));
+        return durable;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        queue.add(CLOSE);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    private void append(byte type, Request request, Object payload) {
+        byte[] record;
+        try {
+            record = encode(type, IncompleteOperations.key(request), payload);
+        } catch (IOException e) {
+            log.warn(String.format("Could not journal record of operation [%s] trace [%s]", request.getOperatonId(),
+                    request.getTraceId()), e);
+            return;
+        }
+        enqueue(new Pending(record, null));
+    }
+
+    private void enqueue(Pending pending) {
+        if (closed) {
+            throw new IllegalStateException("Store is in [closed] state");
+        }
+        queue.add(pending);
+    }
+
+    private void write() {
+        List<Pending> batch = new ArrayList<>();
+        boolean running = true;
+        while (running) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                continue;
+            }
+            queue.drainTo(batch, MAX_BATCH - 1);
+            running = !batch.remove(CLOSE);
+            ByteBuffer[] buffers = new ByteBuffer[batch.size()];
+            long remaining = 0;
+            for (int i = 0; i < buffers.length; i++) {
+                buffers[i] = ByteBuffer.wrap(batch.get(i).record);
+                remaining += buffers[i].remaining();
+            }
+            IOException error = null;
+            try {
+                if (buffers.length > 0) {
+                    while (remaining > 0) {
+                        remaining -= channel.write(buffers);
+                    }
+                    channel.force(false);
+                }
+            } catch (IOException e) {
+                log.error("Could not write to journal", e);
+                error = e;
+            }
+            for (Pending pending : batch) {
+                if (pending.durable != null) {
+                    if (error == null) {
+                        pending.durable.complete(null);
+                    } else {
+                        pending.durable.completeExceptionally(error);
+                    }
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    private static byte[] encode(byte type, String key, Object payload) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0);
+        out.writeInt(0);
+        out.writeByte(type);
+        out.writeUTF(key);
+        if (payload != null) {
+            ObjectOutputStream objects = new ObjectOutputStream(out);
+            objects.writeObject(payload);
+            objects.flush();
+        }
+        ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), HEADER_SIZE, record.capacity() - HEADER_SIZE);
+        record.putInt(0, record.capacity() - HEADER_SIZE);
+        record.putInt(4, (int) crc.getValue());
+        return record.array();
+    }
+
+    // returns the position after the last complete record
+    private static long replay(FileChannel channel, IncompleteOperations operations) throws IOException {
+        channel.position(0);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        long position = 0;
+        while (true) {
+            byte[] body;
+            try {
+                int length = in.readInt();
+                int checksum = in.readInt();
+                if (length <= 0 || position + HEADER_SIZE + length > channel.size()) {
+                    return position;
+                }
+                body = new byte[length];
+                in.readFully(body);
+                CRC32 crc = new CRC32();
+                crc.update(body, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    return position;
+                }
+            } catch (EOFException e) {
+                return position;
+            }
+            apply(body, operations);
+            position += HEADER_SIZE + body.length;
+        }
+    }
+
+    private static void apply(byte[] body, IncompleteOperations operations) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+        byte type = in.readByte();
+        String key = in.readUTF();
+        try {
+            switch (type) {
+            case STARTED:
+                operations.started(key, (Request) readObject(in));
+                break;
+            case INPUT:
+                operations.input(key, (BranchInput<?>) readObject(in));
+                break;
+            case OUTPUT:
+                operations.output(key, (BranchOutput<?>) readObject(in));
+                break;
+            case COMPLETED:
+                operations.completed(key);
+                break;
+            default:
+                log.warn(String.format("Skipping journal record of unknown type [%d]", type));
+            }
+        } catch (ClassNotFoundException e) {
+            log.warn(String.format("Skipping journal record of [%s]", key), e);
+        }
+    }
+
+    private static Object readObject(InputStream in) throws IOException, ClassNotFoundException {
+        return new ObjectInputStream(in).readObject();
+    }
+}
@@ -0,0 +1,93 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.store;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.bitsandgates.ecm.domain.BranchInput;
+import com.bitsandgates.ecm.domain.BranchOutput;
+import com.bitsandgates.ecm.domain.Request;
+import com.bitsandgates.ecm.domain.Retry;
+
+// Rebuilds the operations that did not complete from journaled records, in the order they were written
+class IncompleteOperations {
+
+    private final Map<String, Operation> operations = new LinkedHashMap<>();
+
+    static String key(Request request) {
+        return request.getOperatonId() + "/" + request.getTraceId();
+    }
+
+    void started(String key, Request request) {
+        operations.put(key, new Operation(request));
+    }
+
+    void input(String key, BranchInput<?> input) {
+        Operation operation = operations.get(key);
+        if (operation != null) {
+            operation.input = input;
+        }
+    }
+
+    void output(String key, BranchOutput<?> output) {
+        Operation operation = operations.get(key);
+        if (operation != null) {
+            operation.outputs.put(output.getBranchId(), output);
+        }
+    }
+
+    void completed(String key) {
+        operations.remove(key);
+    }
+
+    Set<String> keys() {
+        return operations.keySet();
+    }
+
+    List<Request> toRequests() {
+        List<Request> requests = new ArrayList<>(operations.size());
+        operations.values().forEach(operation -> requests.add(operation.toRequest()));
+        return requests;
+    }
+
+    private static class Operation {
+
+        private final Request request;
+
+        private BranchInput<?> input;
+
+        // latest output of each branch
+        private final Map<String, BranchOutput<?>> outputs = new LinkedHashMap<>();
+
+        Operation(Request request) {
+            this.request = request;
+        }
+
+        // a request that was itself a retry already carries the outputs of earlier tries
+        Request toRequest() {
+            Retry previous = request.getRetry();
+            BranchInput<?> branchInput = input != null ? input : previous != null ? previous.getBranchInput() : null;
+            if (branchInput == null) {
+                return request.toBuilder().retry(null).build();
+            }
+            Map<String, BranchOutput<?>> merged = new LinkedHashMap<>();
+            if (previous != null && previous.getOutputs() != null) {
+                previous.getOutputs().forEach(output -> merged.put(output.getBranchId(), output));
+            }
+            merged.putAll(outputs);
+            return request.toBuilder()
+                    .retry(Retry.builder().branchInput(branchInput).outputs(new ArrayList<>(merged.values())).build())
+                    .build();
+        }
+    }
+}
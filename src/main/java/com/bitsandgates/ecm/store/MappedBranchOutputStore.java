@@ -0,0 +1,468 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.store;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import com.bitsandgates.ecm.domain.BranchError;
+import com.bitsandgates.ecm.domain.BranchInput;
+import com.bitsandgates.ecm.domain.BranchOutput;
+import com.bitsandgates.ecm.domain.Request;
+
+import lombok.extern.slf4j.Slf4j;
+
+// Journal of memory-mapped segment files. An append is a copy into the mapped segment under a short lock, with no
+// system call, and the records survive a crash of the process as they are already in the page cache; force() makes
+// them durable against a crash of the machine. Segments are rolled when full and sealed segments are compacted by
+// dropping the records of completed operations.
+//
+// Record: [int length][int crc32][byte type][string key][body], length and crc cover what follows them. A length of 0
+// marks the end of the data in a segment. Output bodies are [string branchId][int index][byte flags][string error
+// message][string error trace][bytes result], where strings and bytes are length prefixed and -1 stands for null. The
+// error trace is written as null: rendering it on every append would undo the lazy traces of BranchError, and a
+// recovered operation only needs the message and whether the branch can be retried.
+@Slf4j
+public class MappedBranchOutputStore implements BranchOutputStore, Closeable {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final byte STARTED = 1;
+
+    private static final byte INPUT = 2;
+
+    private static final byte OUTPUT = 3;
+
+    private static final byte COMPLETED = 4;
+
+    private static final int ERROR = 1;
+
+    private static final int CAN_RETRY = 2;
+
+    private static final int HEADER_SIZE = 8;
+
+    private final Path directory;
+
+    private final int segmentSize;
+
+    private final List<Request> incomplete;
+
+    // operations started and not completed, compaction keeps their records
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+    // sealed segments by sequence number
+    private final TreeMap<Long, Path> sealed = new TreeMap<>();
+
+    private final Object compactionLock = new Object();
+
+    private long sequence;
+
+    private FileChannel channel;
+
+    private MappedByteBuffer segment;
+
+    private boolean closed;
+
+    private MappedBranchOutputStore(Path directory, int segmentSize, List<Request> incomplete) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.incomplete = incomplete;
+    }
+
+    public static MappedBranchOutputStore open(Path directory) throws IOException {
+        return open(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public static MappedBranchOutputStore open(Path directory, int segmentSize) throws IOException {
+        Files.createDirectories(directory);
+        TreeMap<Long, Path> segments = listSegments(directory);
+        IncompleteOperations operations = new IncompleteOperations();
+        long end = 0;
+        for (Path path : segments.values()) {
+            end = scan(path, (type, key, body) -> apply(type, key, body, operations));
+        }
+        MappedBranchOutputStore store = new MappedBranchOutputStore(directory, segmentSize, operations.toRequests());
+        store.pending.addAll(operations.keys());
+        if (segments.isEmpty()) {
+            store.roll(0, 0);
+        } else {
+            store.sealed.putAll(segments.headMap(segments.lastKey()));
+            store.map(segments.lastKey(), segments.lastEntry().getValue(), end);
+        }
+        store.compact();
+        return store;
+    }
+
+    @Override
+    public void started(Request request) {
+        String key = IncompleteOperations.key(request);
+        pending.add(key);
+        append(STARTED, key, request, this::writeObject);
+    }
+
+    @Override
+    public void input(Request request, BranchInput<?> input) {
+        append(INPUT, IncompleteOperations.key(request), input, this::writeObject);
+    }
+
+    @Override
+    public void output(Request request, BranchOutput<?> output) {
+        append(OUTPUT, IncompleteOperations.key(request), output, this::writeOutput);
+    }
+
+    @Override
+    public void completed(Request request) {
+        String key = IncompleteOperations.key(request);
+        append(COMPLETED, key, null, (out, __) -> {
+        });
+        pending.remove(key);
+    }
+
+    // operations that were incomplete when the journal was opened
+    @Override
+    public List<Request> incomplete() {
+        return incomplete;
+    }
+
+    // writes the records appended so far to disk, appends are not held up while it does; a segment rolled meanwhile was
+    // forced when it was sealed
+    public void force() {
+        MappedByteBuffer current;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            current = segment;
+        }
+        current.force();
+    }
+
+    // Rewrites sealed segments without the records of completed operations, segments left empty are deleted. Each
+    // segment is replaced as a whole, so the records of an operation stay in the order they were appended.
+    public void compact() throws IOException {
+        synchronized (compactionLock) {
+            List<Long> sequences;
+            synchronized (this) {
+                sequences = new ArrayList<>(sealed.keySet());
+            }
+            for (long number : sequences) {
+                Path path;
+                synchronized (this) {
+                    path = sealed.get(number);
+                }
+                compact(number, path);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        segment.force();
+        channel.close();
+    }
+
+    @FunctionalInterface
+    private interface BodyWriter<T> {
+
+        void write(DataOutputStream out, T value) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface RecordConsumer {
+
+        void accept(byte type, String key, DataInputStream body) throws IOException;
+    }
+
+    private <T> void append(byte type, String key, T value, BodyWriter<T> writer) {
+        byte[] record;
+        try {
+            record = encode(type, key, value, writer);
+        } catch (IOException e) {
+            log.warn(String.format("Could not journal record of [%s]", key), e);
+            return;
+        }
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Store is in [closed] state");
+            }
+            if (segment.remaining() < record.length) {
+                try {
+                    roll(sequence + 1, record.length);
+                } catch (IOException e) {
+                    log.error(String.format("Could not roll journal segment in [%s]", directory), e);
+                    return;
+                }
+            }
+            // the length goes in last, so a record is never visible before all of it is written
+            int position = segment.position();
+            segment.position(position + 4);
+            segment.put(record, 4, record.length - 4);
+            segment.putInt(position, record.length - HEADER_SIZE);
+        }
+    }
+
+    private <T> byte[] encode(byte type, String key, T value, BodyWriter<T> writer) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0);
+        out.writeInt(0);
+        out.writeByte(type);
+        writeString(out, key);
+        writer.write(out, value);
+        out.flush();
+        byte[] record = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(record, HEADER_SIZE, record.length - HEADER_SIZE);
+        ByteBuffer.wrap(record).putInt(0, record.length - HEADER_SIZE).putInt(4, (int) crc.getValue());
+        return record;
+    }
+
+    private void writeObject(DataOutputStream out, Object value) throws IOException {
+        writeBytes(out, serialize(value));
+    }
+
+    private void writeOutput(DataOutputStream out, BranchOutput<?> output) throws IOException {
+        writeString(out, output.getBranchId());
+        out.writeInt(output.getIndex());
+        BranchError error = output.getError();
+        out.writeByte((error != null ? ERROR : 0) | (error != null && error.canRetry() ? CAN_RETRY : 0));
+        writeString(out, error != null ? error.getErrorMessage() : null);
+        writeString(out, null);
+        writeBytes(out, output.getResult() != null ? serialize(output.getResult()) : null);
+    }
+
+    private static BranchOutput<?> readOutput(DataInputStream in) throws IOException, ClassNotFoundException {
+        String branchId = readString(in);
+        int index = in.readInt();
+        int flags = in.readByte();
+        String errorMessage = readString(in);
+        String errorTrace = readString(in);
+        byte[] result = readBytes(in);
+        return BranchOutput.builder()
+                .branchId(branchId)
+                .index(index)
+                .error((flags & ERROR) != 0 ? BranchError.builder()
+                        .canRetry((flags & CAN_RETRY) != 0)
+                        .errorMessage(errorMessage)
+                        .errorTrace(errorTrace)
+                        .build() : null)
+                .result(result != null ? deserialize(result) : null)
+                .build();
+    }
+
+    private static byte[] serialize(Object value) throws IOException {
+        if (value != null && !(value instanceof Serializable)) {
+            throw new IOException(String.format("Class [%s] is not Serializable", value.getClass().getName()));
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(value);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        writeBytes(out, value != null ? value.getBytes(UTF_8) : null);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = readBytes(in);
+        return bytes != null ? new String(bytes, UTF_8) : null;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static void apply(byte type, String key, DataInputStream body, IncompleteOperations operations) throws IOException {
+        try {
+            switch (type) {
+            case STARTED:
+                operations.started(key, (Request) deserialize(readBytes(body)));
+                break;
+            case INPUT:
+                operations.input(key, (BranchInput<?>) deserialize(readBytes(body)));
+                break;
+            case OUTPUT:
+                operations.output(key, readOutput(body));
+                break;
+            case COMPLETED:
+                operations.completed(key);
+                break;
+            default:
+                log.warn(String.format("Skipping journal record of unknown type [%d]", type));
+            }
+        } catch (ClassNotFoundException e) {
+            log.warn(String.format("Skipping journal record of [%s]", key), e);
+        }
+    }
+
+    // calls the consumer for every complete record and returns the position after the last one
+    private static long scan(Path path, RecordConsumer consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, READ)) {
+            ByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+            while (buffer.remaining() >= HEADER_SIZE) {
+                int position = buffer.position();
+                int length = buffer.getInt();
+                int checksum = buffer.getInt();
+                if (length <= 0 || length > buffer.remaining()) {
+                    return position;
+                }
+                byte[] record = new byte[length];
+                buffer.get(record);
+                CRC32 crc = new CRC32();
+                crc.update(record, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    log.warn(String.format("Journal segment [%s] has a corrupt record at [%d]", path, position));
+                    return position;
+                }
+                DataInputStream body = new DataInputStream(new ByteArrayInputStream(record));
+                consumer.accept(body.readByte(), readString(body), body);
+            }
+            return buffer.position();
+        }
+    }
+
+    // seals the current segment and starts a new one, large enough for a record of at least minSize bytes
+    private void roll(long number, int minSize) throws IOException {
+        if (segment != null) {
+            segment.force();
+            channel.close();
+            sealed.put(sequence, segmentPath(directory, sequence));
+        }
+        Path path = segmentPath(directory, number);
+        sequence = number;
+        channel = FileChannel.open(path, CREATE_NEW, READ, WRITE);
+        segment = channel.map(MapMode.READ_WRITE, 0, Math.max(segmentSize, minSize));
+    }
+
+    // continues the last segment after its last complete record, clearing whatever a torn write left behind
+    private void map(long number, Path path, long end) throws IOException {
+        sequence = number;
+        channel = FileChannel.open(path, CREATE, READ, WRITE);
+        segment = channel.map(MapMode.READ_WRITE, 0, Math.max(channel.size(), segmentSize));
+        for (int i = (int) end; i < segment.limit(); i++) {
+            if (segment.get(i) != 0) {
+                segment.put(i, (byte) 0);
+            }
+        }
+        segment.position((int) end);
+    }
+
+    private void compact(long number, Path path) throws IOException {
+        List<byte[]> live = new ArrayList<>();
+        int[] total = new int[1];
+        scan(path, (type, key, body) -> {
+            total[0]++;
+            if (pending.contains(key)) {
+                live.add(reencode(type, key, body));
+            }
+        });
+        if (live.size() == total[0]) {
+            return;
+        }
+        synchronized (this) {
+            if (live.isEmpty()) {
+                Files.delete(path);
+                sealed.remove(number);
+                return;
+            }
+        }
+        Path compacted = path.resolveSibling(path.getFileName() + ".compact");
+        try (FileChannel out = FileChannel.open(compacted, CREATE, WRITE)) {
+            out.truncate(0);
+            for (byte[] record : live) {
+                ByteBuffer buffer = ByteBuffer.wrap(record);
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+            }
+            out.force(true);
+        }
+        Files.move(compacted, path, REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+
+    private byte[] reencode(byte type, String key, DataInputStream body) throws IOException {
+        byte[] rest = new byte[body.available()];
+        body.readFully(rest);
+        return encode(type, key, rest, (out, bytes) -> out.write(bytes));
+    }
+
+    private static TreeMap<Long, Path> listSegments(Path directory) throws IOException {
+        TreeMap<Long, Path> segments = new TreeMap<>();
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : paths) {
+                String name = path.getFileName().toString();
+                segments.put(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())), path);
+            }
+        }
+        return segments;
+    }
+
+    private static Path segmentPath(Path directory, long number) {
+        return directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    }
+}
@@ -0,0 +1,123 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.codec;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.bitsandgates.ecm.domain.BranchError;
+import com.bitsandgates.ecm.domain.BranchInput;
+import com.bitsandgates.ecm.domain.BranchOutput;
+import com.bitsandgates.ecm.domain.Request;
+import com.bitsandgates.ecm.domain.Response;
+import com.bitsandgates.ecm.domain.Retry;
+
+public class BinaryCodecTest {
+
+    @Test
+    void given_requestWithRetry_when_encodedAndDecoded_then_requestRestored() {
+        Request request = request();
+
+        Request decoded = BinaryCodec.create().decodeRequest(BinaryCodec.create().encodeRequest(request));
+
+        assertThat(decoded.getTraceId()).isEqualTo("trace");
+        assertThat(decoded.getOperatonId()).isEqualTo("operation");
+        assertThat(decoded.getRetryCount()).isEqualTo(2);
+        assertThat(decoded.getDeadlineMillis()).isEqualTo(1_600_000_000_000L);
+        assertThat(decoded.getPayload()).isEqualTo(new BigDecimal("12.5"));
+        assertThat(decoded.getRetry().getBranchInput().getValue()).isEqualTo(-42L);
+        List<BranchOutput<?>> outputs = decoded.getRetry().getOutputs();
+        assertThat(outputs).hasSize(100);
+        assertThat(outputs.get(7).getBranchId()).isEqualTo("loop");
+        assertThat(outputs.get(7).getIndex()).isEqualTo(7);
+        assertThat(outputs.get(7).getResult()).isEqualTo(7);
+        assertThat(outputs.get(99).isRetry()).isTrue();
+        assertThat(outputs.get(99).getError().getErrorMessage()).isEqualTo("timed out");
+        assertThat(outputs.get(99).getError().getErrorTrace()).isEqualTo("trace of 99");
+        assertThat(outputs.get(98).isError()).isTrue();
+        assertThat(outputs.get(98).isRetry()).isFalse();
+    }
+
+    @Test
+    void given_response_when_encodedAndDecoded_then_responseRestored() {
+        Response response = Response.builder()
+                .traceId("trace")
+                .operationId("operation")
+                .payload(Arrays.asList("a", "b"))
+                .build();
+
+        Response decoded = BinaryCodec.create().decodeResponse(BinaryCodec.create().encodeResponse(response));
+
+        assertThat(decoded.getTraceId()).isEqualTo("trace");
+        assertThat(decoded.getOperationId()).isEqualTo("operation");
+        assertThat(decoded.getRetry()).isNull();
+        assertThat(decoded.getPayload()).isEqualTo(Arrays.asList("a", "b"));
+    }
+
+    @Test
+    void given_omitTraces_when_encodedAndDecoded_then_tracesDroppedAndMessagesKept() {
+        BinaryCodec codec = BinaryCodec.builder().omitTraces(true).build();
+
+        Request decoded = codec.decodeRequest(codec.encodeRequest(request()));
+
+        BranchError error = decoded.getRetry().getOutputs().get(99).getError();
+        assertThat(error.getErrorMessage()).isEqualTo("timed out");
+        assertThat(error.getErrorTrace()).isNull();
+        assertThat(error.canRetry()).isTrue();
+    }
+
+    @Test
+    void given_requestWithRetry_when_encoded_then_smallerThanJavaSerialization() {
+        Request request = request();
+
+        int binary = BinaryCodec.create().encodeRequest(request).length;
+        int java = new JavaSerializationCodec().encodeRequest(request).length;
+
+        assertThat(binary).isLessThan(java / 2);
+    }
+
+    @Test
+    void given_responseBytes_when_decodedAsRequest_then_codecException() {
+        byte[] bytes = BinaryCodec.create().encodeResponse(Response.builder().traceId("trace").build());
+
+        assertThatThrownBy(() -> BinaryCodec.create().decodeRequest(bytes)).isInstanceOf(CodecException.class);
+        assertThatThrownBy(() -> BinaryCodec.create().decodeResponse(Arrays.copyOf(bytes, bytes.length - 1)))
+                .isInstanceOf(CodecException.class);
+    }
+
+    private static Request request() {
+        List<BranchOutput<?>> outputs = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            BranchError error = null;
+            if (i >= 98) {
+                error = BranchError.builder()
+                        .canRetry(i == 99)
+                        .errorMessage("timed out")
+                        .errorTrace("trace of " + i)
+                        .build();
+            }
+            outputs.add(BranchOutput.builder().branchId("loop").index(i).result(error == null ? i : null).error(error).build());
+        }
+        return Request.builder()
+                .traceId("trace")
+                .operatonId("operation")
+                .retryCount(2)
+                .deadlineMillis(1_600_000_000_000L)
+                .retry(Retry.builder().branchInput(BranchInput.builder().value(-42L).build()).outputs(outputs).build())
+                .payload(new BigDecimal("12.5"))
+                .build();
+    }
+}
@@ -0,0 +1,114 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.metrics;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.jupiter.api.Test;
+
+import com.bitsandgates.ecm.annotation.Branch;
+import com.bitsandgates.ecm.annotation.LoopBranch;
+import com.bitsandgates.ecm.domain.BranchOutput;
+import com.bitsandgates.ecm.domain.Request;
+import com.bitsandgates.ecm.domain.Response;
+import com.bitsandgates.ecm.service.BranchContext;
+import com.bitsandgates.ecm.service.Operation;
+import com.bitsandgates.ecm.service.Service;
+import com.bitsandgates.ecm.service.ServiceConfig;
+
+public class InFlightOperationsTest {
+
+    private static final ExecutorService executorService = Executors.newCachedThreadPool();
+
+    @Test
+    void given_trackInFlight_when_operationBlocked_then_snapshotShowsBranchStatesAndLoopProgress() throws Exception {
+        Service service = new Service(executorService, ServiceConfig.builder().maxTries(1).trackInFlight(true).build());
+        OpWithBlockedBranch op = new OpWithBlockedBranch();
+        Operation.bindToServcie(service, op);
+        Request request = Request.builder().traceId("trace").operatonId(OpWithBlockedBranch.class.getName()).build();
+
+        CompletableFuture<Response> response = service.processAsync(request);
+        assertThat(op.blocked.await(1, TimeUnit.SECONDS)).isTrue();
+        List<OperationSnapshot> operations = service.getInFlightOperations();
+
+        assertThat(operations).hasSize(2);
+        OperationSnapshot operation = operations.stream().filter(snapshot -> snapshot.getLoop() == null).findFirst().get();
+        assertThat(operation.getTraceId()).isEqualTo("trace");
+        assertThat(operation.getBranches()).extracting(BranchSnapshot::getBranchId, BranchSnapshot::getState)
+                .containsExactlyInAnyOrder(tuple("fast", BranchState.DONE),
+                        tuple("looping", BranchState.RUNNING),
+                        tuple("dependent", BranchState.PENDING));
+        assertThat(operation.format()).contains("dependent PENDING on [looping]");
+        OperationSnapshot loop = operations.stream().filter(snapshot -> snapshot.getLoop() != null).findFirst().get();
+        assertThat(loop.getLoopBranchId()).isEqualTo("loop");
+        // the loop is blocked once it tries to submit the next element
+        assertThat(loop.getLoop()).usingRecursiveComparison().ignoringFields("blocked").isEqualTo(new LoopSnapshot(3, 0, 1, 0, 1, true));
+
+        ObjectName name = InFlightOperations.register(service, "test");
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            assertThat(server.getAttribute(name, "Count")).isEqualTo(2);
+            assertThat((String[]) server.getAttribute(name, "Operations")).hasSize(2);
+        } finally {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        }
+
+        op.release.countDown();
+        assertThat(response.get(1, TimeUnit.SECONDS).getRetry()).isNull();
+        assertThat(service.getInFlightOperations()).isEmpty();
+    }
+
+    @Test
+    void given_noTracking_when_getInFlightOperations_then_empty() {
+        assertThat(new Service(executorService, 1).getInFlightOperations()).isEmpty();
+    }
+
+    public static class OpWithBlockedBranch {
+
+        final CountDownLatch blocked = new CountDownLatch(1);
+
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Branch
+        public BranchOutput<?> fast(BranchContext context) {
+            return context.outputBuilder(Object.class).build();
+        }
+
+        @Branch
+        public BranchOutput<?> looping(BranchContext context) {
+            return context.outputBuilder(Object.class).result(context.loopBranch("loop", null, asList("a", "b", "c"), 1).getPayload())
+                    .build();
+        }
+
+        @Branch(dependencies = { "fast", "looping" })
+        public BranchOutput<?> dependent(BranchContext context) {
+            return context.outputBuilder(Object.class).build();
+        }
+
+        @LoopBranch
+        public BranchOutput<?> loop(BranchContext context, Object data, String element, int index) throws InterruptedException {
+            blocked.countDown();
+            release.await();
+            return context.outputBuilder(Object.class).build();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    void given_emptyHistogram_when_getValueAtPercentile_then_zero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertThat(histogram.getValueAtPercentile(99)).isEqualTo(0);
+        assertThat(histogram.snapshot()).isEqualTo(new LatencySnapshot(0, 0, 0, 0, 0));
+    }
+
+    @Test
+    void given_values_when_getValueAtPercentile_then_withinBucketError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 100_000; value++) {
+            histogram.record(value * 1000);
+        }
+
+        assertThat(histogram.getCount()).isEqualTo(100_000);
+        assertThat(histogram.getMax()).isEqualTo(100_000_000);
+        assertThat((double) histogram.getValueAtPercentile(50)).isCloseTo(50_000_000, within(50_000_000 / 16.0));
+        assertThat((double) histogram.getValueAtPercentile(99)).isCloseTo(99_000_000, within(99_000_000 / 16.0));
+        assertThat((double) histogram.getValueAtPercentile(99.9)).isCloseTo(99_900_000, within(99_900_000 / 16.0));
+        assertThat(histogram.getValueAtPercentile(100)).isEqualTo(100_000_000);
+    }
+
+    @Test
+    void given_anyValue_when_index_then_valueWithinItsBucket() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            long value = random.nextLong() >>> (1 + random.nextInt(63));
+            long highest = LatencyHistogram.highestEquivalent(LatencyHistogram.index(value));
+            assertThat(highest).isGreaterThanOrEqualTo(value);
+            assertThat(highest - value).isLessThanOrEqualTo(value / 16);
+        }
+        assertThat(LatencyHistogram.highestEquivalent(LatencyHistogram.index(Long.MAX_VALUE))).isEqualTo(Long.MAX_VALUE);
+    }
+}
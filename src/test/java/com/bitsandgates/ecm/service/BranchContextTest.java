@@ -20,6 +20,7 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import com.bitsandgates.ecm.domain.BranchError;
 import com.bitsandgates.ecm.domain.BranchInput;
 import com.bitsandgates.ecm.domain.BranchOutput;
 
@@ -80,6 +81,69 @@ public class BranchContextTest {
         assertThat(in).isEqualTo(input);
     }
 
+    @Test
+    void given_fullTraceMode_when_outputBuilderWithException_then_traceRenderedOnFirstRead() {
+        when(operationContext.getServiceConfig()).thenReturn(ServiceConfig.builder().traceMode(TraceMode.FULL).build());
+        Exception e = new IllegalStateException("failed", new RuntimeException("cause"));
+
+        BranchError error = givenContextWithNoDependencies().outputBuilder(Void.class, e, true).build().getError();
+
+        assertThat(error.toString()).contains(ErrorTraces.full(e));
+        assertThat(error.getErrorTrace()).isEqualTo(ErrorTraces.full(e));
+        assertThat(error.getErrorTrace()).isSameAs(error.getErrorTrace());
+    }
+
+    @Test
+    void given_dependencyWithError_when_outputBuilderForDependencyError_then_traceSharedNotEmbedded() {
+        when(operationContext.getServiceConfig()).thenReturn(ServiceConfig.builder().traceMode(TraceMode.FULL).build());
+        BranchContext context = givenContextWithNoDependencies();
+        BranchOutput<?> failed = context.outputBuilder(Void.class, new IllegalStateException("failed"), true).build();
+
+        BranchError error = context.outputBuilderForDependencyError(Void.class, failed).build().getError();
+
+        assertThat(error.getErrorMessage()).contains("[failed]").doesNotContain("\tat ");
+        assertThat(error.getErrorTrace()).isSameAs(failed.getError().getErrorTrace());
+        assertThat(error.canRetry()).isTrue();
+    }
+
+    @Test
+    void given_truncatedTraceMode_when_sameFailureTwice_then_sharedTruncatedTrace() {
+        when(operationContext.getServiceConfig()).thenReturn(ServiceConfig.builder().traceMode(TraceMode.TRUNCATED).build());
+        BranchContext context = givenContextWithNoDependencies();
+
+        String first = null;
+        String second = null;
+        for (int i = 0; i < 2; i++) {
+            Exception e = deepException(20, "failure " + i);
+            String trace = context.outputBuilder(Void.class, e, true).build().getError().getErrorTrace();
+            if (i == 0) {
+                first = trace;
+            } else {
+                second = trace;
+            }
+        }
+
+        assertThat(second).isSameAs(first);
+        assertThat(first).startsWith(IllegalStateException.class.getName() + "\n");
+        assertThat(first.split("\tat ")).hasSize(ErrorTraces.TRUNCATED_FRAMES + 1);
+        assertThat(first).contains(" more\n").doesNotContain("failure");
+    }
+
+    @Test
+    void given_noTraceMode_when_outputBuilderWithException_then_messageWithoutTrace() {
+        when(operationContext.getServiceConfig()).thenReturn(ServiceConfig.builder().traceMode(TraceMode.NONE).build());
+
+        BranchError error = givenContextWithNoDependencies()
+                .outputBuilder(Void.class, new IllegalStateException("failed"), false).build().getError();
+
+        assertThat(error.getErrorMessage()).isEqualTo("failed");
+        assertThat(error.getErrorTrace()).isNull();
+    }
+
+    private static Exception deepException(int depth, String message) {
+        return depth == 0 ? new IllegalStateException(message) : deepException(depth - 1, message);
+    }
+
     @SneakyThrows
     static void waitAndComplete(CompletableFuture<BranchOutput<?>> dependency, BranchOutput<?> output, long millis) {
         Thread.sleep(millis);
@@ -0,0 +1,78 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.Test;
+
+import com.bitsandgates.ecm.domain.BranchError;
+import com.bitsandgates.ecm.domain.BranchOutput;
+
+public class BranchOutputsTest {
+
+    @Test
+    void given_outputsAddedConcurrently_when_getAll_then_allOutputsPresentAndRetriesCounted() {
+        BranchOutputs outputs = new BranchOutputs();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                int thread = i;
+                futures.add(CompletableFuture.runAsync(() -> {
+                    for (int j = 0; j < 1000; j++) {
+                        outputs.addOutput(output(thread * 1000 + j, false));
+                    }
+                }, executor));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(outputs.getAll()).hasSize(8000);
+        assertThat(outputs.isRetry()).isFalse();
+
+        outputs.addOutput(output(8000, true));
+
+        assertThat(outputs.isRetry()).isTrue();
+        assertThat(outputs.getAll()).hasSize(8001);
+    }
+
+    @Test
+    void given_noNewOutputs_when_getAll_then_sameUnmodifiableList() {
+        BranchOutputs outputs = new BranchOutputs();
+        outputs.addOutput(output(0, false));
+
+        List<BranchOutput<?>> all = outputs.getAll();
+
+        assertThat(outputs.getAll()).isSameAs(all);
+        assertThatThrownBy(() -> all.add(output(1, false))).isInstanceOf(UnsupportedOperationException.class);
+
+        outputs.addOutput(output(1, false));
+
+        assertThat(outputs.getAll()).isNotSameAs(all).hasSize(2);
+        assertThat(all).hasSize(1);
+    }
+
+    private static BranchOutput<?> output(int index, boolean retry) {
+        return BranchOutput.builder()
+                .branchId("branch")
+                .index(index)
+                .error(retry ? BranchError.builder().canRetry(true).build() : null)
+                .build();
+    }
+}
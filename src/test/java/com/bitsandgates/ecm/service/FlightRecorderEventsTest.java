@@ -0,0 +1,164 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.service;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.Test;
+
+import com.bitsandgates.ecm.annotation.Branch;
+import com.bitsandgates.ecm.annotation.LoopBranch;
+import com.bitsandgates.ecm.domain.BranchOutput;
+import com.bitsandgates.ecm.domain.Request;
+
+// JFR is used reflectively, as by FlightRecorderEvents, so that the tests still compile on Java 8
+public class FlightRecorderEventsTest {
+
+    private static final ExecutorService executorService = Executors.newCachedThreadPool();
+
+    @Test
+    void given_recording_when_process_then_tryBranchAndLoopIterationEventsRecorded() throws Exception {
+        assumeTrue(hasFlightRecorder());
+        Service service = new Service(executorService, 1);
+        Operation.bindToServcie(service, new OpWithLoop());
+        Request request = Request.builder().traceId("trace").operatonId(OpWithLoop.class.getName()).build();
+
+        List<Map<String, Object>> events = record(() -> service.process(request));
+
+        assertThat(events).filteredOn(event -> event.get("type").equals("com.bitsandgates.ecm.Try"))
+                .extracting(event -> event.get("branchId"), event -> event.get("outcome"), event -> event.get("retryCount"))
+                .containsExactlyInAnyOrder(tuple(null, "SUCCESS", 0),
+                        tuple("loop", "SUCCESS", 0));
+        assertThat(events).filteredOn(event -> event.get("type").equals("com.bitsandgates.ecm.Branch"))
+                .extracting(event -> event.get("branchId"))
+                .containsExactlyInAnyOrder("branch", "looping");
+        assertThat(events).filteredOn(event -> event.get("type").equals("com.bitsandgates.ecm.LoopIteration"))
+                .extracting(event -> event.get("index"))
+                .containsExactlyInAnyOrder(0, 1, 2);
+        assertThat(events).allMatch(event -> event.get("operationId").equals(OpWithLoop.class.getName()))
+                .allMatch(event -> event.get("traceId").equals("trace"));
+    }
+
+    @Test
+    void given_flightRecorder_when_eventTypesCreated_then_allAvailable() {
+        assumeTrue(hasFlightRecorder());
+        assertThat(asList(FlightRecorderEvents.TRY, FlightRecorderEvents.BRANCH, FlightRecorderEvents.LOOP_ITERATION,
+                FlightRecorderEvents.SLOW_BRANCH)).allMatch(FlightRecorderEvents.EventType::isAvailable);
+    }
+
+    @Test
+    void given_recordingAndWatchdog_when_branchSlow_then_slowBranchEventRecorded() throws Exception {
+        assumeTrue(hasFlightRecorder());
+        Watchdog watchdog = Watchdog.builder().intervalMillis(10).handler(event -> {
+        }).build();
+        Service service = new Service(executorService, ServiceConfig.builder().watchdog(watchdog).build());
+        Operation.bindToServcie(service, new OpWithSlowBranch());
+        Request request = Request.builder().traceId("trace").operatonId(OpWithSlowBranch.class.getName()).build();
+
+        List<Map<String, Object>> events;
+        try {
+            events = record(() -> service.process(request));
+        } finally {
+            watchdog.close();
+        }
+
+        assertThat(events).filteredOn(event -> event.get("type").equals("com.bitsandgates.ecm.SlowBranch"))
+                .extracting(event -> event.get("branchId"), event -> event.get("traceId"))
+                .containsExactly(tuple("slow", "trace"));
+        assertThat(events).filteredOn(event -> event.get("type").equals("com.bitsandgates.ecm.SlowBranch"))
+                .extracting(event -> (String) event.get("stackSample"))
+                .allMatch(stack -> stack.contains(OpWithSlowBranch.class.getName() + ".slow"));
+    }
+
+    @Test
+    void given_noRecording_when_begin_then_noEvent() {
+        assertThat(FlightRecorderEvents.BRANCH.begin()).isNull();
+    }
+
+    private static List<Map<String, Object>> record(Runnable runnable) throws Exception {
+        Class<?> recordingClass = Class.forName("jdk.jfr.Recording");
+        Object recording = recordingClass.getConstructor().newInstance();
+        for (String name : asList("com.bitsandgates.ecm.Try", "com.bitsandgates.ecm.Branch", "com.bitsandgates.ecm.LoopIteration",
+                "com.bitsandgates.ecm.SlowBranch")) {
+            recordingClass.getMethod("enable", String.class).invoke(recording, name);
+        }
+        Path file = Files.createTempFile("ecm", ".jfr");
+        try {
+            recordingClass.getMethod("start").invoke(recording);
+            runnable.run();
+            recordingClass.getMethod("stop").invoke(recording);
+            recordingClass.getMethod("dump", Path.class).invoke(recording, file);
+            List<Map<String, Object>> events = new ArrayList<>();
+            for (Object recorded : (List<?>) Class.forName("jdk.jfr.consumer.RecordingFile").getMethod("readAllEvents", Path.class)
+                    .invoke(null, file)) {
+                Object type = recorded.getClass().getMethod("getEventType").invoke(recorded);
+                Map<String, Object> event = new HashMap<>();
+                event.put("type", type.getClass().getMethod("getName").invoke(type));
+                for (Object field : (List<?>) recorded.getClass().getMethod("getFields").invoke(recorded)) {
+                    String name = (String) field.getClass().getMethod("getName").invoke(field);
+                    event.put(name, recorded.getClass().getMethod("getValue", String.class).invoke(recorded, name));
+                }
+                events.add(event);
+            }
+            return events;
+        } finally {
+            recordingClass.getMethod("close").invoke(recording);
+            Files.delete(file);
+        }
+    }
+
+    private static boolean hasFlightRecorder() {
+        try {
+            Class.forName("jdk.jfr.Recording");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    static class OpWithSlowBranch {
+
+        @Branch(slowAfterMillis = 20)
+        public BranchOutput<?> slow(BranchContext context) throws InterruptedException {
+            Thread.sleep(200);
+            return context.outputBuilder(Object.class).build();
+        }
+    }
+
+    static class OpWithLoop {
+
+        @Branch
+        public BranchOutput<?> branch(BranchContext context) {
+            return context.outputBuilder(Object.class).build();
+        }
+
+        @Branch
+        public BranchOutput<?> looping(BranchContext context) {
+            return context.outputBuilder(Object.class).result(context.loopBranch("loop", null, asList("a", "b", "c")).getPayload())
+                    .build();
+        }
+
+        @LoopBranch
+        public BranchOutput<?> loop(BranchContext context, Object data, String element, int index) {
+            return context.outputBuilder(Object.class).result(element).build();
+        }
+    }
+}
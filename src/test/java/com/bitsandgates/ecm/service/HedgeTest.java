@@ -0,0 +1,74 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+public class HedgeTest {
+
+    @Test
+    void given_fixedDelay_when_latenciesRecorded_then_delayUnchanged() {
+        Hedge hedge = new Hedge(20, 0);
+
+        for (int i = 0; i < Hedge.SAMPLES; i++) {
+            hedge.record(1000);
+        }
+
+        assertThat(hedge.getDelayMillis()).isEqualTo(20);
+    }
+
+    @Test
+    void given_percentile_when_enoughLatenciesRecorded_then_delayIsPercentile() {
+        Hedge hedge = new Hedge(0, 90);
+
+        for (int i = 1; i < Hedge.SAMPLES; i++) {
+            hedge.record(i);
+        }
+        assertThat(hedge.getDelayMillis()).isEqualTo(Long.MAX_VALUE);
+
+        hedge.record(Hedge.SAMPLES);
+
+        assertThat(hedge.getDelayMillis()).isEqualTo(116);
+    }
+
+    @Test
+    void given_fullWindow_when_newerLatenciesRecorded_then_delayFollowsThem() {
+        Hedge hedge = new Hedge(0, 50);
+
+        for (int i = 0; i < Hedge.SAMPLES * 3; i++) {
+            hedge.record(1000);
+        }
+        assertThat(hedge.getDelayMillis()).isEqualTo(1000);
+
+        for (int i = 0; i < Hedge.SAMPLES; i++) {
+            hedge.record(10);
+        }
+
+        assertThat(hedge.getDelayMillis()).isEqualTo(10);
+    }
+
+    @Test
+    void given_hedgesAndWins_when_metrics_then_ratesReported() {
+        Hedge hedge = new Hedge(10, 0);
+        for (int i = 0; i < 4; i++) {
+            hedge.called();
+        }
+        hedge.hedged();
+        hedge.hedged();
+        hedge.won();
+
+        HedgeMetrics metrics = hedge.metrics();
+
+        assertThat(metrics.getHedgeRate()).isEqualTo(0.5);
+        assertThat(metrics.getWinRate()).isEqualTo(0.5);
+        assertThat(metrics.getDelayMillis()).isEqualTo(10);
+    }
+}
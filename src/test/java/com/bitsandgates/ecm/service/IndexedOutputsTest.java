@@ -0,0 +1,76 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.service;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.bitsandgates.ecm.domain.BranchError;
+import com.bitsandgates.ecm.domain.BranchOutput;
+import com.bitsandgates.ecm.domain.Retry;
+
+public class IndexedOutputsTest {
+
+    @Test
+    void given_retry_when_completedCreated_then_onlyOutputsNotNeedingRetryPresent() {
+        Retry retry = Retry.builder()
+                .outputs(asList(output(0, false), output(1, true), output(2, false)))
+                .build();
+
+        IndexedOutputs completed = IndexedOutputs.completed(retry);
+
+        assertThat(completed.contains(0)).isTrue();
+        assertThat(completed.contains(1)).isFalse();
+        assertThat(completed.contains(2)).isTrue();
+        assertThat(completed.get(1)).isNull();
+        assertThat(completed.size()).isEqualTo(2);
+    }
+
+    @Test
+    void given_outputsPutOutOfOrder_when_forEach_then_outputsInIndexOrder() {
+        IndexedOutputs outputs = new IndexedOutputs(1);
+        outputs.put(40, output(40, false));
+        outputs.put(3, output(3, false));
+        outputs.put(17, output(17, false));
+
+        List<Integer> indices = new ArrayList<>();
+        outputs.forEach(output -> indices.add(output.getIndex()));
+
+        assertThat(indices).containsExactly(3, 17, 40);
+        assertThat(outputs.size()).isEqualTo(3);
+    }
+
+    @Test
+    void given_sparseOutputs_when_farIndicesPut_then_outputsInIndexOrder() {
+        IndexedOutputs outputs = IndexedOutputs.sparse();
+        outputs.put(Integer.MAX_VALUE - 1, output(Integer.MAX_VALUE - 1, true));
+        outputs.put(5, output(5, false));
+
+        List<Integer> indices = new ArrayList<>();
+        outputs.forEach(output -> indices.add(output.getIndex()));
+
+        assertThat(indices).containsExactly(5, Integer.MAX_VALUE - 1);
+        assertThat(outputs.contains(5)).isTrue();
+        assertThat(outputs.get(6)).isNull();
+        assertThat(outputs.size()).isEqualTo(2);
+    }
+
+    private static BranchOutput<?> output(int index, boolean retry) {
+        return BranchOutput.builder()
+                .branchId("branch")
+                .index(index)
+                .error(retry ? BranchError.builder().canRetry(true).build() : null)
+                .build();
+    }
+}
@@ -0,0 +1,75 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.service;
+
+import static java.util.Collections.emptyList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+import com.bitsandgates.ecm.domain.BranchOutput;
+import com.bitsandgates.ecm.service.Invokers.BranchMethod;
+import com.bitsandgates.ecm.service.Invokers.LoopBranchMethod;
+
+public class InvokersTest {
+
+    private static final BranchContext context = new BranchContext("branch", null, 3, emptyList());
+
+    @Test
+    void given_publicMethod_when_invoke_then_methodCalled() throws Throwable {
+        BranchMethod method = Invokers.branch(PublicOp.class.getMethod("branch", BranchContext.class));
+        BranchOutput<?> output = method.invoke(new PublicOp(), context);
+        assertThat(output.getResult()).isEqualTo("public");
+    }
+
+    @Test
+    void given_packagePrivateClass_when_invoke_then_methodCalled() throws Throwable {
+        BranchMethod method = Invokers.branch(PrivateOp.class.getMethod("branch", BranchContext.class));
+        BranchOutput<?> output = method.invoke(new PrivateOp(), context);
+        assertThat(output.getResult()).isEqualTo("private");
+    }
+
+    @Test
+    void given_loopMethod_when_invoke_then_argumentsPassed() throws Throwable {
+        LoopBranchMethod method = Invokers.loopBranch(
+                PublicOp.class.getMethod("loop", BranchContext.class, String.class, Integer.class, int.class));
+        BranchOutput<?> output = method.invoke(new PublicOp(), context, "data", 5, 3);
+        assertThat(output.getResult()).isEqualTo("data:5:3");
+        assertThat(output.getIndex()).isEqualTo(3);
+    }
+
+    @Test
+    void given_methodThrows_when_invoke_then_exceptionNotWrapped() throws Throwable {
+        BranchMethod method = Invokers.branch(PublicOp.class.getMethod("fail", BranchContext.class));
+        assertThrows(IllegalStateException.class, () -> method.invoke(new PublicOp(), context));
+    }
+
+    public static class PublicOp {
+
+        public BranchOutput<String> branch(BranchContext context) {
+            return context.outputBuilder(String.class).result("public").build();
+        }
+
+        public BranchOutput<String> loop(BranchContext context, String data, Integer element, int index) {
+            return context.outputBuilder(String.class).result(data + ":" + element + ":" + index).build();
+        }
+
+        public BranchOutput<String> fail(BranchContext context) {
+            throw new IllegalStateException();
+        }
+    }
+
+    static class PrivateOp {
+
+        public BranchOutput<String> branch(BranchContext context) {
+            return context.outputBuilder(String.class).result("private").build();
+        }
+    }
+}
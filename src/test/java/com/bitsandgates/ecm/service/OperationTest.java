@@ -8,20 +8,37 @@ LICENSE file in the root directory of this source tree.
 
 package com.bitsandgates.ecm.service;
 
+import static java.util.Arrays.asList;
+import static java.util.concurrent.CompletableFuture.completedFuture;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -32,12 +49,22 @@ import org.mockito.junit.jupiter.MockitoExtension;
 import com.bitsandgates.ecm.annotation.AfterBranches;
 import com.bitsandgates.ecm.annotation.BeforeBranches;
 import com.bitsandgates.ecm.annotation.Branch;
+import com.bitsandgates.ecm.annotation.FailFast;
 import com.bitsandgates.ecm.annotation.LoopBranch;
 import com.bitsandgates.ecm.domain.BranchError;
 import com.bitsandgates.ecm.domain.BranchInput;
 import com.bitsandgates.ecm.domain.BranchOutput;
+import com.bitsandgates.ecm.domain.NonRecoverableBranchException;
+import com.bitsandgates.ecm.domain.OperationValidationException;
 import com.bitsandgates.ecm.domain.Request;
 import com.bitsandgates.ecm.domain.Response;
+import com.bitsandgates.ecm.metrics.CriticalPath;
+import com.bitsandgates.ecm.metrics.CriticalPathReport;
+import com.bitsandgates.ecm.metrics.HistogramRecorder;
+import com.bitsandgates.ecm.metrics.HistogramRecorder.Metric;
+import com.bitsandgates.ecm.metrics.ServiceListener;
+import com.bitsandgates.ecm.metrics.ServiceListener.Stage;
+import com.bitsandgates.ecm.store.BranchOutputStore;
 
 @ExtendWith(MockitoExtension.class)
 public class OperationTest {
@@ -46,6 +73,8 @@ public class OperationTest {
 
     private static final ThrottledExecutorService throttledExecutorService = new ThrottledExecutorService(executorService);
 
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
     @Mock
     private Service service;
 
@@ -70,6 +99,21 @@ public class OperationTest {
     @Spy
     private OpWithLoop opWithLoop = new OpWithLoop();
 
+    @Spy
+    private OpWithFlakyDependency opWithFlakyDependency = new OpWithFlakyDependency();
+
+    @Spy
+    private OpWithFailFast opWithFailFast = new OpWithFailFast();
+
+    @Spy
+    private OpWithTimeout opWithTimeout = new OpWithTimeout();
+
+    @Spy
+    private OpWithDeadline opWithDeadline = new OpWithDeadline();
+
+    @Spy
+    private OpWithHedge opWithHedge = new OpWithHedge();
+
     private static final String traceId = "traceId";
 
     private static final BranchInput<?> input = BranchInput.builder().build();
@@ -96,6 +140,22 @@ public class OperationTest {
         verify(op, times(1)).branch2(any(BranchContext.class));
     }
 
+    @Test
+    void given_executedOperation_when_branchOutputsModified_then_contextUnchanged() {
+        when(service.getExecutorService()).thenReturn(executorService);
+        Operation operation = Operation.create(op);
+        OperationContext context = createContext(Op.class.getName());
+        Response response = operation.execute(context);
+
+        assertThat(response.getPayload()).isSameAs(context.getOutputsSnapshot());
+        List<BranchOutput<?>> outputs = context.getBrancheOutputs();
+        outputs.sort((a, b) -> b.getBranchId().compareTo(a.getBranchId()));
+        outputs.removeIf(output -> output.getBranchId().equals("branch1"));
+
+        assertThat(outputs).extracting(BranchOutput::getBranchId).containsExactly("branch2");
+        assertThat(context.getBrancheOutputs()).hasSize(2);
+    }
+
     @Test
     void given_operationWithError_when_executeRequest_then_responseHasRetry() {
         when(service.getExecutorService()).thenReturn(executorService);
@@ -125,6 +185,221 @@ public class OperationTest {
         assertThat((List<?>) output.getResult()).hasSize(2);
     }
 
+    @Test
+    void given_operationWithDependencies_when_executeAsync_then_dependentReceivesDependencies() {
+        when(service.getExecutorService()).thenReturn(executorService);
+
+        Operation operation = Operation.create(opWithDeps);
+        OperationContext context = createContext(OpWithDeps.class.getName());
+        Response response = operation.executeAsync(context).join();
+
+        assertNotNull(response);
+        verify(opWithDeps, times(1)).dependent(any(BranchContext.class));
+        @SuppressWarnings("unchecked")
+        BranchOutput<?> output = getBranchOutput((List<BranchOutput<?>>) response.getPayload(), "dependent");
+        assertThat((List<?>) output.getResult()).hasSize(2);
+    }
+
+    @Test
+    void given_operationWithUnknownDependency_when_create_then_exceptionThrown() {
+        assertThrows(OperationValidationException.class, () -> Operation.create(new OpWithUnknownDependency()));
+    }
+
+    @Test
+    void given_operationWithCyclicDependencies_when_create_then_exceptionThrown() {
+        assertThrows(OperationValidationException.class, () -> Operation.create(new OpWithCyclicDependencies()));
+    }
+
+    @Test
+    void given_operationWithDependencies_when_create_then_branchesSortedTopologically() {
+        BranchGraph graph = Operation.create(new OpWithChain()).getGraph();
+
+        assertThat(graph.positionOf("first")).isLessThan(graph.positionOf("second"));
+        assertThat(graph.positionOf("second")).isLessThan(graph.positionOf("third"));
+        assertThat(graph.getLevel(graph.positionOf("first"))).isEqualTo(0);
+        assertThat(graph.getLevel(graph.positionOf("third"))).isEqualTo(2);
+        assertThat(graph.getDependants(graph.positionOf("first"))).containsExactly(graph.positionOf("second"), graph.positionOf("third"));
+    }
+
+    @Test
+    void given_branchTries_when_branchFails_then_branchRetriedInPlaceBeforeDependants() {
+        when(service.getExecutorService()).thenReturn(executorService);
+        when(service.getConfig()).thenReturn(ServiceConfig.builder().branchTries(2).build());
+        when(service.delay(0L)).thenReturn(completedFuture(null));
+
+        Operation operation = Operation.create(opWithFlakyDependency);
+        OperationContext context = createContext(OpWithFlakyDependency.class.getName());
+        Response response = operation.execute(context);
+
+        assertThat(response.getRetry()).isNull();
+        verify(opWithFlakyDependency, times(1)).branch1(any(BranchContext.class));
+        verify(opWithFlakyDependency, times(2)).flaky(any(BranchContext.class));
+        verify(opWithFlakyDependency, times(1)).dependent(any(BranchContext.class));
+    }
+
+    @Test
+    void given_failFastOperation_when_branchFailsWithoutRetry_then_siblingsInterruptedAndDependantsNotInvoked() {
+        when(service.getExecutorService()).thenReturn(executorService);
+
+        Operation operation = Operation.create(opWithFailFast);
+        OperationContext context = createContext(OpWithFailFast.class.getName());
+        long start = System.nanoTime();
+        Response response = operation.execute(context);
+
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(OpWithFailFast.SLOW_MILLIS);
+        assertThat(response.getRetry()).isNull();
+        verify(opWithFailFast, never()).dependent(any(BranchContext.class));
+        assertThat(context.getBrancheOutputs()).hasSize(4).allMatch(output -> output.isError() && !output.isRetry());
+        assertThat(context.getBrancheOutputs()).filteredOn(output -> output.getBranchId().equals("slow"))
+                .allMatch(output -> output.getError().getErrorMessage().contains("[fails]"));
+    }
+
+    @Test
+    void given_branchTimeout_when_branchHangs_then_branchInterruptedAndReportedAsRetry() throws InterruptedException {
+        givenScheduler();
+
+        Operation operation = Operation.create(opWithTimeout);
+        OperationContext context = createContext(OpWithTimeout.class.getName());
+        long start = System.nanoTime();
+        Response response = operation.execute(context);
+
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(OpWithTimeout.HANG_MILLIS);
+        assertThat(response.getRetry().getOutputs()).filteredOn(BranchOutput::isRetry).hasSize(1)
+                .allMatch(output -> output.getBranchId().equals("hangs"))
+                .allMatch(output -> output.getError().getErrorMessage().contains("timed out after [100] ms"));
+        assertThat(opWithTimeout.interrupted.await(1, TimeUnit.SECONDS)).isTrue();
+        assertThat(opWithTimeout.remainingMillis).isBetween(1L, 100L);
+    }
+
+    @Test
+    void given_requestDeadline_when_deadlineExpires_then_incompleteBranchesReportedAsRetry() {
+        givenScheduler();
+
+        Operation operation = Operation.create(opWithDeadline);
+        Request request = Request.builder()
+                .traceId(traceId)
+                .operatonId(OpWithDeadline.class.getName())
+                .deadlineMillis(System.currentTimeMillis() + 200)
+                .build();
+        OperationContext context = createContext(OpWithDeadline.class.getName(), request);
+        Response response = operation.execute(context);
+
+        assertThat(response.getRetry().getOutputs()).filteredOn(BranchOutput::isRetry)
+                .extracting(BranchOutput::getBranchId)
+                .containsExactlyInAnyOrder("hangs", "afterHangs");
+        assertThat(response.getRetry().getOutputs()).filteredOn(output -> !output.isError()).hasSize(2);
+        verify(opWithDeadline, never()).afterHangs(any(BranchContext.class));
+    }
+
+    @Test
+    void given_hedgedBranch_when_firstInvocationSlow_then_hedgeWinsAndFirstInterrupted() throws InterruptedException {
+        when(service.getExecutorService()).thenReturn(executorService);
+        when(service.scheduleOrSkip(any(Runnable.class), anyLong()))
+                .thenAnswer(invocation -> scheduler.schedule(invocation.getArgument(0, Runnable.class), invocation.getArgument(1, Long.class),
+                        TimeUnit.MILLISECONDS));
+
+        Operation operation = Operation.create(opWithHedge);
+        OperationContext context = createContext(OpWithHedge.class.getName());
+        long start = System.nanoTime();
+        Response response = operation.execute(context);
+
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(OpWithHedge.SLOW_MILLIS);
+        assertThat(response.getRetry()).isNull();
+        assertThat(context.getBrancheOutputs()).filteredOn(output -> output.getBranchId().equals("hedged"))
+                .extracting(output -> (Object) output.getResult())
+                .containsExactly("hedge");
+        assertThat(opWithHedge.interrupted.await(1, TimeUnit.SECONDS)).isTrue();
+        HedgeMetrics metrics = operation.getHedgeMetrics("hedged").get();
+        assertThat(metrics.getCalls()).isEqualTo(1);
+        assertThat(metrics.getHedges()).isEqualTo(1);
+        assertThat(metrics.getWins()).isEqualTo(1);
+        assertThat(operation.getHedgeMetrics("branch1")).isEmpty();
+    }
+
+    @Test
+    void given_histogramRecorder_when_executeAsync_then_branchAndAfterBranchesLatenciesRecorded() {
+        HistogramRecorder recorder = new HistogramRecorder();
+        when(service.getExecutorService()).thenReturn(executorService);
+        when(service.getConfig()).thenReturn(ServiceConfig.builder().listener(recorder).build());
+        Operation operation = Operation.create(opWithDeps);
+        String id = operation.getId();
+
+        operation.executeAsync(createContext(id)).join();
+
+        for (String branchId : asList("branch1", "branch2", "dependent")) {
+            for (Metric metric : Metric.values()) {
+                assertThat(recorder.getHistogram(Stage.BRANCH, metric, id, branchId).getCount()).isEqualTo(1);
+            }
+        }
+        assertThat(recorder.getHistogram(Stage.AFTER_BRANCHES, Metric.DURATION, id, id).getCount()).isEqualTo(1);
+        assertThat(recorder.getHistogram(Stage.AFTER_BRANCHES, Metric.WAIT, id, id)).isNull();
+        assertThat(recorder.format()).hasSize(11);
+    }
+
+    @Test
+    void given_throwingListener_when_executeAsync_then_operationCompletes() throws Exception {
+        ServiceListener listener = mock(ServiceListener.class);
+        doThrow(new IllegalStateException("started")).when(listener).started(any(Stage.class), any(), any(), anyLong());
+        doThrow(new IllegalStateException("finished")).when(listener).finished(any(Stage.class), any(), any(), anyLong(), anyBoolean());
+        when(service.getExecutorService()).thenReturn(executorService);
+        when(service.getConfig()).thenReturn(ServiceConfig.builder().listener(listener).build());
+        Operation operation = Operation.create(opWithDeps);
+
+        Response response = operation.executeAsync(createContext(operation.getId())).get(1, TimeUnit.SECONDS);
+
+        assertThat(response.getRetry()).isNull();
+        verify(listener, times(4)).finished(any(Stage.class), any(), any(), anyLong(), anyBoolean());
+    }
+
+    @Test
+    void given_failingBranchOutputStore_when_executeAsync_then_operationCompletes() throws Exception {
+        BranchOutputStore store = mock(BranchOutputStore.class);
+        doThrow(new IllegalStateException("Store is closed")).when(store).output(any(Request.class), any(BranchOutput.class));
+        when(service.getExecutorService()).thenReturn(executorService);
+        when(service.getConfig()).thenReturn(ServiceConfig.builder().branchOutputStore(store).build());
+        Operation operation = Operation.create(opWithDeps);
+
+        Response response = operation.executeAsync(createContext(operation.getId())).get(1, TimeUnit.SECONDS);
+
+        assertThat(response.getRetry()).isNull();
+        verify(store, times(3)).output(any(Request.class), any(BranchOutput.class));
+    }
+
+    @Test
+    void given_criticalPath_when_executeRequest_then_slowestChainIsCritical() {
+        when(service.getExecutorService()).thenReturn(executorService);
+        when(service.getConfig()).thenReturn(ServiceConfig.builder().criticalPath(true).build());
+        Operation operation = Operation.create(new OpWithSlowBranch());
+
+        operation.execute(createContext(operation.getId()));
+        CriticalPath path = (CriticalPath) operation.execute(createContext(operation.getId())).getPayload();
+
+        assertThat(path.getPath()).containsExactly("slow", "joined");
+        assertThat(path.getDurationNanos()).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(50));
+        assertThat(path.getBranch("slow").getSlackNanos()).isEqualTo(0);
+        assertThat(path.getBranch("fast").isCritical()).isFalse();
+        assertThat(path.getBranch("joined").getLevel()).isEqualTo(1);
+        assertThat(path.toDot()).containsPattern("\\{ rank=same; \"(slow|fast)\"; \"(slow|fast)\"; \\}");
+        assertThat(path.getBranch("fast").getSlackNanos()).isGreaterThan(TimeUnit.MILLISECONDS.toNanos(40));
+        assertThat(path.toDot()).contains("\"slow\" -> \"joined\" [color=red, penwidth=2];", "\"fast\" -> \"joined\";");
+        assertThat(path.toJson()).contains("\"path\":[\"slow\",\"joined\"]");
+
+        CriticalPathReport report = operation.getCriticalPathReport();
+        assertThat(report.getCount()).isEqualTo(2);
+        assertThat(report.getBranches().get(2).getBranchId()).isEqualTo("fast");
+        assertThat(report.getBranch("slow").getCriticalRate()).isEqualTo(1.0);
+        assertThat(report.getBranch("fast").getCriticalCount()).isEqualTo(0);
+        assertThat(report.getBranch("fast").getLevel()).isEqualTo(0);
+        assertThat(report.toJson()).contains("\"count\":2");
+    }
+
+    private void givenScheduler() {
+        when(service.getExecutorService()).thenReturn(executorService);
+        when(service.schedule(any(Runnable.class), anyLong()))
+                .thenAnswer(invocation -> scheduler.schedule(invocation.getArgument(0, Runnable.class), invocation.getArgument(1, Long.class),
+                        TimeUnit.MILLISECONDS));
+    }
+
     @Test
     void given_operationWithBeforeAfterMethods_when_executeRequest_then_beforeAfterCalled() {
         when(service.getExecutorService()).thenReturn(executorService);
@@ -266,6 +541,158 @@ public class OperationTest {
         verify(opWithLoop, times(count + 1)).branch4(any(BranchContext.class), any(), any(Object.class), any(int.class));
     }
 
+    @Test
+    void given_loopBranchConcurrencyAboveServiceMax_when_loopExecuted_then_notClamped() {
+        when(service.getThrottledExecutorService()).thenReturn(throttledExecutorService);
+        Operation operation = Operation.create(opWithLoop);
+        OperationContext context = createContext(OpWithLoop.class.getName());
+
+        Loop loop = Loop.builder()
+                .branchId("wide")
+                .collection(IntStream.range(0, OpWithLoop.WIDE).boxed().collect(Collectors.toList()))
+                .context(context)
+                .build();
+        Response response = operation.loopBranch(loop);
+
+        assertThat(response.getRetry()).isNull();
+        assertThat(opWithLoop.wide.getCount()).isEqualTo(0);
+    }
+
+    @Test
+    void given_interruptedLoop_when_elementsNotRun_then_eachReportedAsRetry() throws Exception {
+        when(service.getThrottledExecutorService()).thenReturn(throttledExecutorService);
+        Operation operation = Operation.create(opWithLoop);
+        Loop loop = Loop.builder()
+                .branchId("blocking")
+                .collection(IntStream.range(0, 10).boxed().collect(Collectors.toList()))
+                .context(createContext(OpWithLoop.class.getName()))
+                .build();
+
+        CompletableFuture<Response> result = new CompletableFuture<>();
+        Thread thread = new Thread(() -> result.complete(operation.loopBranch(loop)));
+        thread.start();
+        assertThat(opWithLoop.blocked.await(1, TimeUnit.SECONDS)).isTrue();
+        // the loop is waiting for a free slot to submit the next element
+        thread.interrupt();
+        opWithLoop.release.countDown();
+        Response response = result.get(1, TimeUnit.SECONDS);
+
+        assertThat(response.getRetry().getOutputs()).hasSize(10);
+        assertThat(response.getRetry().getOutputs()).filteredOn(BranchOutput::isRetry)
+                .extracting(BranchOutput::getIndex)
+                .containsExactlyElementsOf(IntStream.range(1, 10).boxed().collect(Collectors.toList()));
+    }
+
+    @Test
+    void given_loopBranchWithConcurrency_when_loopExecuted_then_concurrencyBounded() {
+        when(service.getThrottledExecutorService()).thenReturn(throttledExecutorService);
+        when(service.getConfig()).thenReturn(ServiceConfig.builder().maxLoopConcurrency(100).build());
+        Operation operation = Operation.create(opWithLoop);
+        OperationContext context = createContext(OpWithLoop.class.getName());
+
+        List<Integer> list = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            list.add(i);
+        }
+        Loop loop = Loop.builder()
+                .branchId("limited")
+                .collection(list)
+                .context(context)
+                .build();
+        Response response = operation.loopBranch(loop);
+
+        assertNotNull(response);
+        assertThat(opWithLoop.maxInFlight.get()).isLessThanOrEqualTo(2);
+    }
+
+    @Test
+    void given_chunkedLoopWithRetry_when_loopRetried_then_onlyFailedElementsExecuted() {
+        when(service.getThrottledExecutorService()).thenReturn(throttledExecutorService);
+        Operation operation = Operation.create(opWithLoop);
+        OperationContext context = createContext(OpWithLoop.class.getName());
+
+        List<Integer> list = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            list.add(i);
+        }
+        Loop loop = Loop.builder()
+                .branchId("chunked")
+                .collection(list)
+                .context(context)
+                .build();
+        Response response = operation.loopBranch(loop);
+
+        assertNotNull(response.getRetry());
+        assertThat(response.getRetry().getOutputs()).hasSize(10);
+        assertThat(response.getRetry().getOutputs().stream().filter(BranchOutput::isRetry).map(BranchOutput::getIndex))
+                .containsExactly(3);
+
+        opWithLoop.chunks.clear();
+        Request retryRequest = Request.builder().traceId(traceId).operatonId(OpWithLoop.class.getName()).retryCount(1).build();
+        loop = loop.toBuilder().retry(response.getRetry()).retryCount(1).context(createContext(OpWithLoop.class.getName(), retryRequest)).build();
+        response = operation.loopBranch(loop);
+
+        assertThat(response.getRetry()).isNull();
+        assertThat(opWithLoop.chunks).containsExactly(asList(3));
+    }
+
+    @Test
+    void given_iteratorLoopWithRetry_when_loopRetried_then_sourceConsumedOnceAndOnlyFailedElementsExecuted() {
+        when(service.getThrottledExecutorService()).thenReturn(throttledExecutorService);
+        Operation operation = Operation.create(opWithLoop);
+        OperationContext context = createContext(OpWithLoop.class.getName());
+
+        AtomicInteger pulled = new AtomicInteger();
+        Iterator<Integer> iterator = IntStream.range(0, 10).peek(i -> pulled.incrementAndGet()).iterator();
+        Loop loop = Loop.builder()
+                .branchId("streamed")
+                .iterator(iterator)
+                .context(context)
+                .build();
+        Response response = operation.loopBranch(loop);
+
+        assertNotNull(response.getRetry());
+        assertThat(response.getRetry().getOutputs()).hasSize(10);
+        assertThat(response.getRetry().getOutputs().stream().filter(BranchOutput::isRetry).map(BranchOutput::getIndex))
+                .containsExactly(2);
+
+        opWithLoop.streamed.clear();
+        Request retryRequest = Request.builder().traceId(traceId).operatonId(OpWithLoop.class.getName()).retryCount(1).build();
+        loop = loop.toBuilder().retry(response.getRetry()).retryCount(1).context(createContext(OpWithLoop.class.getName(), retryRequest)).build();
+        response = operation.loopBranch(loop);
+
+        assertThat(response.getRetry()).isNull();
+        assertThat(opWithLoop.streamed).containsExactly(2);
+        assertThat(pulled.get()).isEqualTo(10);
+    }
+
+    @Test
+    void given_aggregatingLoopWithRetry_when_loopRetried_then_successfulOutputsConsumedOnceAndOnlyFailedKept() {
+        when(service.getThrottledExecutorService()).thenReturn(throttledExecutorService);
+        Operation operation = Operation.create(opWithLoop);
+        OperationContext context = createContext(OpWithLoop.class.getName());
+
+        List<Integer> consumed = new ArrayList<>();
+        Loop loop = Loop.builder()
+                .branchId("streamed")
+                .iterator(IntStream.range(0, 1000).iterator())
+                .consumer(output -> consumed.add((Integer) output.getResult()))
+                .context(context)
+                .build();
+        Response response = operation.loopBranch(loop);
+
+        assertThat(consumed).hasSize(999).doesNotContain(2);
+        assertThat(response.getRetry().getOutputs()).extracting(BranchOutput::getIndex).containsExactly(2);
+
+        Request retryRequest = Request.builder().traceId(traceId).operatonId(OpWithLoop.class.getName()).retryCount(1).build();
+        loop = loop.toBuilder().retry(response.getRetry()).retryCount(1).context(createContext(OpWithLoop.class.getName(), retryRequest)).build();
+        response = operation.loopBranch(loop);
+
+        assertThat(response.getRetry()).isNull();
+        assertThat(consumed).hasSize(1000).containsAll(IntStream.range(0, 1000).boxed().collect(Collectors.toList()));
+        assertThat((List<?>) response.getPayload()).isEmpty();
+    }
+
     static BranchOutput<?> getBranchOutput(List<BranchOutput<?>> outputs, String branchId) {
         for (BranchOutput<?> output : outputs) {
             if (output.getBranchId().equals(branchId)) {
@@ -333,6 +760,172 @@ public class OperationTest {
         }
     }
 
+    static class OpWithFlakyDependency extends Op {
+
+        @Branch
+        public BranchOutput<?> flaky(BranchContext context) {
+            if (context.getRetryCount() == 0) {
+                return context.outputBuilder(Object.class).error(BranchError.builder().canRetry(true).build()).build();
+            }
+            return context.outputBuilder(Object.class).build();
+        }
+
+        @Branch(dependencies = "flaky")
+        public BranchOutput<?> dependent(BranchContext context) {
+            return context.outputBuilder(Object.class).result(context.getDependencyOutput("flaky")).build();
+        }
+    }
+
+    @FailFast
+    static class OpWithFailFast {
+
+        static final long SLOW_MILLIS = 10_000;
+
+        private final CountDownLatch slowStarted = new CountDownLatch(1);
+
+        @Branch
+        public BranchOutput<?> slow(BranchContext context) throws InterruptedException {
+            slowStarted.countDown();
+            Thread.sleep(SLOW_MILLIS);
+            return context.outputBuilder(Object.class).build();
+        }
+
+        @Branch
+        public BranchOutput<?> fails(BranchContext context) throws InterruptedException {
+            slowStarted.await();
+            throw new NonRecoverableBranchException("invalid request");
+        }
+
+        @Branch(dependencies = "fails")
+        public BranchOutput<?> dependent(BranchContext context) {
+            return context.outputBuilder(Object.class).build();
+        }
+
+        @Branch(dependencies = "dependent")
+        public BranchOutput<?> transitive(BranchContext context) {
+            return context.outputBuilder(Object.class).build();
+        }
+    }
+
+    static class OpWithTimeout extends Op {
+
+        static final long HANG_MILLIS = 10_000;
+
+        final CountDownLatch interrupted = new CountDownLatch(1);
+
+        volatile long remainingMillis;
+
+        @Branch(timeoutMillis = 100)
+        public BranchOutput<?> hangs(BranchContext context) {
+            remainingMillis = context.getRemainingMillis();
+            try {
+                Thread.sleep(HANG_MILLIS);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return context.outputBuilder(Object.class).build();
+        }
+    }
+
+    static class OpWithDeadline extends OpWithTimeout {
+
+        @Override
+        @Branch
+        public BranchOutput<?> hangs(BranchContext context) {
+            return super.hangs(context);
+        }
+
+        @Branch(dependencies = "hangs")
+        public BranchOutput<?> afterHangs(BranchContext context) {
+            return context.outputBuilder(Object.class).build();
+        }
+    }
+
+    static class OpWithHedge extends Op {
+
+        static final long SLOW_MILLIS = 10_000;
+
+        final AtomicInteger invocations = new AtomicInteger();
+
+        final CountDownLatch interrupted = new CountDownLatch(1);
+
+        @Branch(hedgeAfterMillis = 50)
+        public BranchOutput<?> hedged(BranchContext context) {
+            if (invocations.incrementAndGet() > 1) {
+                return context.outputBuilder(Object.class).result("hedge").build();
+            }
+            try {
+                Thread.sleep(SLOW_MILLIS);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return context.outputBuilder(Object.class).result("first").build();
+        }
+    }
+
+    static class OpWithUnknownDependency extends Op {
+
+        @Branch(dependencies = "unknown")
+        public BranchOutput<?> dependent(BranchContext context) {
+            return context.outputBuilder(Object.class).build();
+        }
+    }
+
+    static class OpWithCyclicDependencies {
+
+        @Branch(dependencies = "second")
+        public BranchOutput<?> first(BranchContext context) {
+            return context.outputBuilder(Object.class).build();
+        }
+
+        @Branch(dependencies = "first")
+        public BranchOutput<?> second(BranchContext context) {
+            return context.outputBuilder(Object.class).build();
+        }
+    }
+
+    static class OpWithChain {
+
+        @Branch(dependencies = { "second", "first" })
+        public BranchOutput<?> third(BranchContext context) {
+            return context.outputBuilder(Object.class).build();
+        }
+
+        @Branch(dependencies = "first")
+        public BranchOutput<?> second(BranchContext context) {
+            return context.outputBuilder(Object.class).build();
+        }
+
+        @Branch
+        public BranchOutput<?> first(BranchContext context) {
+            return context.outputBuilder(Object.class).build();
+        }
+    }
+
+    static class OpWithSlowBranch {
+
+        @Branch
+        public BranchOutput<?> slow(BranchContext context) throws InterruptedException {
+            Thread.sleep(50);
+            return context.outputBuilder(Object.class).build();
+        }
+
+        @Branch
+        public BranchOutput<?> fast(BranchContext context) {
+            return context.outputBuilder(Object.class).build();
+        }
+
+        @Branch(dependencies = { "slow", "fast" })
+        public BranchOutput<?> joined(BranchContext context) {
+            return context.outputBuilder(Object.class).build();
+        }
+
+        @AfterBranches
+        public Response after(OperationContext context) {
+            return context.responseBuilder().payload(context.getCriticalPath()).build();
+        }
+    }
+
     static class OpWithNonDeterministicBranch extends OpWithRetryError {
 
         @Branch(deterministic = false)
@@ -343,11 +936,76 @@ public class OperationTest {
 
     static class OpWithLoop extends Op {
 
+        final AtomicInteger inFlight = new AtomicInteger();
+
+        final AtomicInteger maxInFlight = new AtomicInteger();
+
+        final List<List<Integer>> chunks = new CopyOnWriteArrayList<>();
+
+        final List<Integer> streamed = new CopyOnWriteArrayList<>();
+
+        final CountDownLatch blocked = new CountDownLatch(1);
+
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @LoopBranch(concurrency = 1)
+        public BranchOutput<?> blocking(BranchContext context, Object data, Object element, int index) throws InterruptedException {
+            blocked.countDown();
+            release.await();
+            return context.outputBuilder(Void.class).build();
+        }
+
+        static final int WIDE = 20;
+
+        // only counts down to 0 if all the iterations run at once
+        final CountDownLatch wide = new CountDownLatch(WIDE);
+
+        @LoopBranch(concurrency = WIDE)
+        public BranchOutput<?> wide(BranchContext context, Object data, Object element, int index) throws InterruptedException {
+            wide.countDown();
+            if (!wide.await(2, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("Iterations did not run at once");
+            }
+            return context.outputBuilder(Void.class).build();
+        }
+
         @LoopBranch
         public BranchOutput<?> branch3(BranchContext context, Map<String, List<String>> date, Object element, int index) {
             return context.outputBuilder(Void.class).build();
         }
 
+        @LoopBranch(concurrency = 2)
+        public BranchOutput<?> limited(BranchContext context, Object data, Object element, int index) throws InterruptedException {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            Thread.sleep(2);
+            inFlight.decrementAndGet();
+            return context.outputBuilder(Void.class).build();
+        }
+
+        @LoopBranch(chunkSize = 4)
+        public List<BranchOutput<?>> chunked(BranchContext context, Object data, List<Integer> chunk, int start) {
+            chunks.add(new ArrayList<>(chunk));
+            List<BranchOutput<?>> outputs = new ArrayList<>();
+            for (int i = 0; i < chunk.size(); i++) {
+                int index = start + i;
+                if (index == 3 && context.getRetryCount() == 0) {
+                    outputs.add(context.outputBuilder(Void.class, new RuntimeException(), true).index(index).build());
+                } else {
+                    outputs.add(context.outputBuilder(Integer.class, index).result(chunk.get(i)).build());
+                }
+            }
+            return outputs;
+        }
+
+        @LoopBranch
+        public BranchOutput<?> streamed(BranchContext context, Object data, Integer element, int index) {
+            streamed.add(element);
+            if (index == 2 && context.getRetryCount() == 0) {
+                throw new RuntimeException();
+            }
+            return context.outputBuilder(Integer.class).result(element).build();
+        }
+
         @LoopBranch
         public BranchOutput<?> branch4(BranchContext context, List<String> data, Object element, int index) {
             if (context.getRetryCount() == 0 && index == 0) {
@@ -0,0 +1,62 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+public class RetryPolicyTest {
+
+    @Test
+    void given_exponentialPolicy_when_delayCalculated_then_delayDoublesUpToMax() {
+        RetryPolicy policy = RetryPolicy.exponential(10, 50);
+
+        assertThat(policy.getDelayMillis(1, 0)).isEqualTo(10);
+        assertThat(policy.getDelayMillis(2, 10)).isEqualTo(20);
+        assertThat(policy.getDelayMillis(3, 20)).isEqualTo(40);
+        assertThat(policy.getDelayMillis(4, 40)).isEqualTo(50);
+        assertThat(policy.getDelayMillis(100, 50)).isEqualTo(50);
+    }
+
+    @Test
+    void given_decorrelatedJitterPolicy_when_delayCalculated_then_delayBetweenBaseAndThreeTimesPrevious() {
+        RetryPolicy policy = RetryPolicy.decorrelatedJitter(10, 1000);
+
+        long previous = 0;
+        for (int i = 1; i < 100; i++) {
+            long delay = policy.getDelayMillis(i, previous);
+            assertThat(delay).isBetween(10L, Math.min(1000L, Math.max(previous, 10L) * 3));
+            previous = delay;
+        }
+    }
+
+    @Test
+    void given_decorrelatedJitterWithoutCap_when_previousDelayLarge_then_delayDrawnWithoutOverflow() {
+        RetryPolicy policy = RetryPolicy.decorrelatedJitter(10, Long.MAX_VALUE);
+
+        for (int i = 0; i < 100; i++) {
+            assertThat(policy.getDelayMillis(i + 1, Long.MAX_VALUE / 2)).isBetween(10L, Long.MAX_VALUE);
+        }
+    }
+
+    @Test
+    void given_retryBudget_when_spent_then_retriesRefusedUntilRequestsDeposit() {
+        RetryBudget budget = RetryBudget.ratio(0.5, 2);
+
+        assertThat(budget.tryAcquireRetry()).isTrue();
+        assertThat(budget.tryAcquireRetry()).isTrue();
+        assertThat(budget.tryAcquireRetry()).isFalse();
+
+        budget.onRequest();
+        assertThat(budget.tryAcquireRetry()).isFalse();
+        budget.onRequest();
+        assertThat(budget.tryAcquireRetry()).isTrue();
+    }
+}
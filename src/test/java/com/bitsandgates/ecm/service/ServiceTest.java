@@ -8,14 +8,31 @@ LICENSE file in the root directory of this source tree.
 
 package com.bitsandgates.ecm.service;
 
+import static java.util.Arrays.asList;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -25,6 +42,10 @@ import org.mockito.junit.jupiter.MockitoExtension;
 import com.bitsandgates.ecm.domain.Request;
 import com.bitsandgates.ecm.domain.Response;
 import com.bitsandgates.ecm.domain.Retry;
+import com.bitsandgates.ecm.metrics.HistogramRecorder;
+import com.bitsandgates.ecm.metrics.HistogramRecorder.Metric;
+import com.bitsandgates.ecm.metrics.ServiceListener.Stage;
+import com.bitsandgates.ecm.store.BranchOutputStore;
 
 @ExtendWith(MockitoExtension.class)
 public class ServiceTest {
@@ -56,25 +77,228 @@ public class ServiceTest {
     @Test
     void given_request_when_operationSucceeds_then_responseReturned() {
         Response expected = Response.builder().build();
-        when(operation.execute(any(OperationContext.class))).thenReturn(expected);
+        when(operation.executeAsync(any(OperationContext.class))).thenReturn(completedFuture(expected));
 
         Request request = Request.builder().operatonId(operationId).traceId(traceId).build();
         Response response = service.process(request);
 
         assertThat(response).isEqualTo(expected);
-        verify(operation, times(1)).execute(any(OperationContext.class));
+        verify(operation, times(1)).executeAsync(any(OperationContext.class));
     }
 
     @Test
     void given_request_when_operationHasError_then_retry() {
         Response expected = Response.builder().retry(Retry.builder().build()).build();
-        when(operation.execute(any(OperationContext.class))).thenReturn(expected);
+        when(operation.executeAsync(any(OperationContext.class))).thenReturn(completedFuture(expected));
 
         Request request = Request.builder().operatonId(operationId).traceId(traceId).build();
         Response response = service.process(request);
 
         assertThat(response).isEqualTo(expected);
-        verify(operation, times(2)).execute(any(OperationContext.class));
+        verify(operation, times(2)).executeAsync(any(OperationContext.class));
         verify(service, times(1)).onErrorAfterRetries(any(Request.class), any(Response.class), any(Integer.class));
     }
+
+    @Test
+    void given_histogramRecorder_when_operationRetried_then_triesRecorded() {
+        HistogramRecorder recorder = new HistogramRecorder();
+        service = spy(new Service(null, ServiceConfig.builder().maxTries(2).listener(recorder).build()));
+        service.addOperation(operation);
+        when(operation.executeAsync(any(OperationContext.class)))
+                .thenReturn(completedFuture(Response.builder().retry(Retry.builder().build()).build()));
+
+        service.process(Request.builder().operatonId(operationId).traceId(traceId).build());
+
+        assertThat(recorder.getHistogram(Stage.TRY, Metric.QUEUE, operationId, operationId).getCount()).isEqualTo(2);
+        assertThat(recorder.getHistogram(Stage.TRY, Metric.DURATION, operationId, operationId).getCount()).isEqualTo(2);
+        assertThat(recorder.getHistogram(Stage.TRY, Metric.WAIT, operationId, operationId).getCount()).isEqualTo(1);
+    }
+
+    @Test
+    void given_jdkWithVirtualThreads_when_newVirtualThreadExecutor_then_tasksRunOnVirtualThreads() throws Exception {
+        assumeTrue(hasVirtualThreads());
+        ExecutorService executor = Service.newVirtualThreadExecutor();
+        try {
+            Thread thread = executor.submit(Thread::currentThread).get();
+            assertThat(Thread.class.getMethod("isVirtual").invoke(thread)).isEqualTo(true);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void given_jdkWithoutVirtualThreads_when_newVirtualThreadExecutor_then_exceptionThrown() {
+        assumeFalse(hasVirtualThreads());
+        assertThrows(UnsupportedOperationException.class, Service::newVirtualThreadExecutor);
+    }
+
+    private static boolean hasVirtualThreads() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    @Test
+    void given_request_when_processAsyncSucceeds_then_responseCompleted() {
+        Response expected = Response.builder().build();
+        when(operation.executeAsync(any(OperationContext.class))).thenReturn(completedFuture(expected));
+
+        Request request = Request.builder().operatonId(operationId).traceId(traceId).build();
+        Response response = service.processAsync(request).join();
+
+        assertThat(response).isEqualTo(expected);
+        verify(operation, times(1)).executeAsync(any(OperationContext.class));
+    }
+
+    @Test
+    void given_request_when_processAsyncHasError_then_retry() {
+        Response expected = Response.builder().retry(Retry.builder().build()).build();
+        when(operation.executeAsync(any(OperationContext.class))).thenReturn(completedFuture(expected));
+
+        Request request = Request.builder().operatonId(operationId).traceId(traceId).build();
+        Response response = service.processAsync(request).join();
+
+        assertThat(response).isEqualTo(expected);
+        verify(operation, times(2)).executeAsync(any(OperationContext.class));
+        verify(service, times(1)).onErrorAfterRetries(any(Request.class), any(Response.class), any(Integer.class));
+    }
+
+    @Test
+    void given_retryBudgetSpent_when_operationHasError_then_notRetried() {
+        service = spy(new Service(null, ServiceConfig.builder().maxTries(3).retryBudget(RetryBudget.ratio(0, 1)).build()));
+        service.addOperation(operation);
+        Response expected = Response.builder().retry(Retry.builder().build()).build();
+        when(operation.executeAsync(any(OperationContext.class))).thenReturn(completedFuture(expected));
+
+        Request request = Request.builder().operatonId(operationId).traceId(traceId).build();
+        service.process(request);
+        service.process(request);
+
+        verify(operation, times(3)).executeAsync(any(OperationContext.class));
+        verify(service, times(1)).onErrorAfterRetries(any(Request.class), any(Response.class), eq(2));
+        verify(service, times(1)).onErrorAfterRetries(any(Request.class), any(Response.class), eq(1));
+    }
+
+    @Test
+    void given_requestDeadlinePassed_when_operationHasError_then_notRetried() {
+        service = spy(new Service(null, ServiceConfig.builder().maxTries(3).build()));
+        service.addOperation(operation);
+        Response expected = Response.builder().retry(Retry.builder().build()).build();
+        when(operation.executeAsync(any(OperationContext.class))).thenReturn(completedFuture(expected));
+
+        Request request = Request.builder()
+                .operatonId(operationId)
+                .traceId(traceId)
+                .deadlineMillis(System.currentTimeMillis() - 1)
+                .build();
+        service.process(request);
+
+        verify(operation, times(1)).executeAsync(any(OperationContext.class));
+        verify(service, times(1)).onErrorAfterRetries(any(Request.class), any(Response.class), eq(1));
+    }
+
+    @Test
+    void given_retryDelay_when_processAsyncHasError_then_retriedAfterDelay() {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            service = spy(new Service(executor, 2));
+            service.addOperation(operation);
+            Response expected = Response.builder().retry(Retry.builder().build()).build();
+            when(operation.executeAsync(any(OperationContext.class))).thenReturn(completedFuture(expected));
+            when(operation.getRetryDelayMillis(any(Retry.class), any(RetryPolicy.class), eq(1), eq(0L))).thenReturn(50L);
+
+            Request request = Request.builder().operatonId(operationId).traceId(traceId).build();
+            long start = System.nanoTime();
+            Response response = service.processAsync(request).join();
+
+            assertThat(response).isEqualTo(expected);
+            assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(MILLISECONDS.toNanos(50));
+            verify(operation, times(2)).executeAsync(any(OperationContext.class));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void given_loopRetryDelay_when_loopHasError_then_retriedAfterDelayWithoutDepositingToBudget() {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            RetryBudget budget = mock(RetryBudget.class);
+            when(budget.tryAcquireRetry()).thenReturn(true);
+            service = spy(new Service(executor, ServiceConfig.builder().maxTries(2).retryBudget(budget).build()));
+            service.addOperation(operation);
+            Response expected = Response.builder().retry(Retry.builder().build()).build();
+            when(operation.loopBranch(any(Loop.class))).thenReturn(expected);
+            when(operation.getLoopRetryDelayMillis(any(Retry.class), any(RetryPolicy.class), eq(1), eq(0L))).thenReturn(50L);
+
+            Request request = Request.builder().operatonId(operationId).traceId(traceId).build();
+            Loop loop = Loop.builder().branchId("loop").context(new OperationContext(service, request)).build();
+            long start = System.nanoTime();
+            Response response = service.loopBranch(loop);
+
+            assertThat(response).isEqualTo(expected);
+            assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(MILLISECONDS.toNanos(50));
+            verify(operation, times(2)).loopBranch(any(Loop.class));
+            verify(budget, never()).onRequest();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void given_interruptedLoopBranch_when_loopRetryDelayed_then_retryNotStarted() throws Exception {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            service = new Service(executor, 2);
+            service.addOperation(operation);
+            when(operation.loopBranch(any(Loop.class))).thenReturn(Response.builder().retry(Retry.builder().build()).build());
+            when(operation.getLoopRetryDelayMillis(any(Retry.class), any(RetryPolicy.class), eq(1), eq(0L))).thenReturn(100L);
+
+            Request request = Request.builder().operatonId(operationId).traceId(traceId).build();
+            Loop loop = Loop.builder().branchId("loop").context(new OperationContext(service, request)).build();
+            Thread.currentThread().interrupt();
+            assertThrows(InterruptedException.class, () -> service.loopBranch(loop));
+            MILLISECONDS.sleep(200);
+
+            verify(operation, times(1)).loopBranch(any(Loop.class));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void given_rejectingExecutor_when_scheduled_then_onlyNonHedgeTasksRunOnScheduler() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.shutdown();
+        service = new Service(executor, 1);
+        CountDownLatch ran = new CountDownLatch(1);
+        AtomicBoolean hedged = new AtomicBoolean();
+
+        service.scheduleOrSkip(() -> hedged.set(true), 0).get(1, TimeUnit.SECONDS);
+        service.schedule(ran::countDown, 0).get(1, TimeUnit.SECONDS);
+
+        assertThat(ran.getCount()).isEqualTo(0);
+        assertThat(hedged).isFalse();
+    }
+
+    @Test
+    void given_storeWithIncompleteOperation_when_recover_then_operationResumedWithJournaledRetry() {
+        Request journaled = Request.builder().operatonId(operationId).traceId(traceId).retry(Retry.builder().build()).build();
+        BranchOutputStore store = mock(BranchOutputStore.class);
+        when(store.incomplete()).thenReturn(asList(journaled, journaled.toBuilder().operatonId("unknown").build()));
+        service = new Service(null, ServiceConfig.builder().branchOutputStore(store).build());
+        service.addOperation(operation);
+        Response expected = Response.builder().build();
+        when(operation.executeAsync(argThat(context -> context.getRequest().getRetry() == journaled.getRetry())))
+                .thenReturn(completedFuture(expected));
+
+        List<CompletableFuture<Response>> responses = service.recover();
+
+        assertThat(responses).hasSize(1);
+        assertThat(responses.get(0).join()).isEqualTo(expected);
+        verify(store, times(1)).completed(any(Request.class));
+    }
 }
@@ -0,0 +1,129 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.bitsandgates.ecm.service.ThrottledExecutorService.Runner;
+
+import lombok.SneakyThrows;
+
+public class ThrottledExecutorServiceTest {
+
+    private final ExecutorService executorService = Executors.newCachedThreadPool();
+
+    private final ThrottledExecutorService throttledExecutorService = new ThrottledExecutorService(executorService);
+
+    @AfterEach
+    void after() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    void given_runner_when_tasksSubmitted_then_inFlightBoundedByConcurrency() throws InterruptedException {
+        int concurrency = 3;
+        int tasks = 30;
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(tasks);
+
+        Runner runner = throttledExecutorService.newRunner(concurrency);
+        for (int i = 0; i < tasks; i++) {
+            runner.run(() -> {
+                maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                sleep(5);
+                inFlight.decrementAndGet();
+                done.countDown();
+            });
+        }
+        runner.close();
+
+        assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(maxInFlight.get()).isLessThanOrEqualTo(concurrency);
+    }
+
+    @Test
+    void given_adaptiveRunner_when_tasksFail_then_limitDecreases() throws InterruptedException {
+        int tasks = 20;
+        CountDownLatch done = new CountDownLatch(tasks);
+
+        Runner runner = throttledExecutorService.newRunner(ConcurrencyLimit.aimd(10, 1, 10));
+        for (int i = 0; i < tasks; i++) {
+            runner.submit(() -> {
+                done.countDown();
+                return false;
+            });
+        }
+        runner.close();
+
+        assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(runner.getLimit()).isLessThan(10);
+    }
+
+    @Test
+    void given_aimdLimit_when_samplesSucceed_then_limitGrowsUpToMax() {
+        ConcurrencyLimit limit = ConcurrencyLimit.aimd(2, 1, 4);
+        for (int i = 0; i < 100; i++) {
+            limit.onSample(1000, true);
+        }
+        assertThat(limit.getLimit()).isEqualTo(4);
+
+        limit.onSample(100000, true);
+        assertThat(limit.getLimit()).isLessThan(4);
+    }
+
+    @Test
+    void given_closedRunner_when_taskSubmitted_then_exceptionThrown() {
+        Runner runner = throttledExecutorService.newRunner(1);
+        runner.close();
+        assertThrows(IllegalStateException.class, () -> runner.run(() -> {
+        }));
+    }
+
+    @Test
+    void given_interruptedCaller_when_awaitCompletion_then_waitsForTasksAndKeepsInterrupt() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger completed = new AtomicInteger();
+        Runner runner = throttledExecutorService.newRunner(2);
+        runner.run(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            completed.incrementAndGet();
+        });
+
+        Thread.currentThread().interrupt();
+        executorService.execute(() -> {
+            sleep(20);
+            release.countDown();
+        });
+        runner.awaitCompletion();
+
+        assertThat(Thread.interrupted()).isTrue();
+        assertThat(completed.get()).isEqualTo(1);
+        assertThat(runner.getCompleted()).isEqualTo(1);
+    }
+
+    @SneakyThrows
+    private static void sleep(long millis) {
+        Thread.sleep(millis);
+    }
+}
@@ -9,7 +9,9 @@ LICENSE file in the root directory of this source tree.
 package com.bitsandgates.ecm.service;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
+import java.lang.reflect.Method;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
@@ -22,6 +24,7 @@ import com.bitsandgates.ecm.annotation.LoopBranch;
 import com.bitsandgates.ecm.domain.BranchError;
 import com.bitsandgates.ecm.domain.BranchInput;
 import com.bitsandgates.ecm.domain.BranchOutput;
+import com.bitsandgates.ecm.domain.OperationValidationException;
 import com.bitsandgates.ecm.domain.Request;
 import com.bitsandgates.ecm.domain.Response;
 import com.bitsandgates.ecm.domain.Retry;
@@ -67,6 +70,20 @@ public class UtilsTest {
         assertThat(branch.isPresent()).isTrue();
     }
 
+    @Test
+    void given_validChunkLoopBranchMethod_when_createBranch_then_created() throws Exception {
+        Optional<Branch> branch = Utils.createLoopBranch(this,
+                getClass().getMethod("validChunkLoopBranch", BranchContext.class, Object.class, List.class, int.class), null);
+        assertThat(branch.isPresent()).isTrue();
+        assertThat(branch.get().getChunkSize()).isEqualTo(100);
+    }
+
+    @Test
+    void given_chunkLoopBranchWithElementParameter_when_createBranch_then_exceptionThrown() throws Exception {
+        Method method = getClass().getMethod("invalidChunkLoopBranch", BranchContext.class, Object.class, Object.class, int.class);
+        assertThrows(OperationValidationException.class, () -> Utils.createLoopBranch(this, method, null));
+    }
+
     @Test
     void given_validBranchMethodWithExtendedInOut_when_createBranch_then_created() throws Exception {
         Optional<Branch> branch = Utils.createBranch(this, getClass().getMethod("validBranchExtendedInOut", ExtendedBranchContext.class), null);
@@ -104,6 +121,16 @@ public class UtilsTest {
         return null;
     }
 
+    @LoopBranch(chunkSize = 100)
+    public List<BranchOutput<?>> validChunkLoopBranch(BranchContext context, Object loopData, List<?> chunk, int startIndex) {
+        return null;
+    }
+
+    @LoopBranch(chunkSize = 100)
+    public BranchOutput<?> invalidChunkLoopBranch(BranchContext context, Object loopData, Object element, int index) {
+        return null;
+    }
+
     @com.bitsandgates.ecm.annotation.Branch
     public ExtendedBranchOutput<?> validBranchExtendedInOut(ExtendedBranchContext context) {
         return null;
@@ -0,0 +1,85 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.Test;
+
+import com.bitsandgates.ecm.annotation.Branch;
+import com.bitsandgates.ecm.domain.BranchOutput;
+import com.bitsandgates.ecm.domain.OperationValidationException;
+import com.bitsandgates.ecm.domain.Request;
+import com.bitsandgates.ecm.metrics.SlowBranchEvent;
+
+public class WatchdogTest {
+
+    private static final ExecutorService executorService = Executors.newCachedThreadPool();
+
+    @Test
+    void given_watchdog_when_branchExceedsThreshold_then_reportedOnceWithStackSample() {
+        Queue<SlowBranchEvent> events = new ConcurrentLinkedQueue<>();
+        Watchdog watchdog = Watchdog.builder().intervalMillis(10).handler(events::add).build();
+        Service service = new Service(executorService, ServiceConfig.builder().watchdog(watchdog).build());
+        Operation.bindToServcie(service, new OpWithSlowBranch());
+        try {
+            service.process(Request.builder().traceId("trace").operatonId(OpWithSlowBranch.class.getName()).build());
+        } finally {
+            watchdog.close();
+        }
+
+        assertThat(events).hasSize(1);
+        SlowBranchEvent event = events.peek();
+        assertThat(event.getTraceId()).isEqualTo("trace");
+        assertThat(event.getOperationId()).isEqualTo(OpWithSlowBranch.class.getName());
+        assertThat(event.getBranchId()).isEqualTo("slow");
+        assertThat(event.getThresholdMillis()).isEqualTo(50);
+        assertThat(event.getElapsedMillis()).isGreaterThanOrEqualTo(50);
+        assertThat(event.getStackTrace()).anyMatch(frame -> frame.getClassName().equals(OpWithSlowBranch.class.getName())
+                && frame.getMethodName().equals("slow"));
+        assertThat(event.format()).contains("Branch [slow] of operation").contains("\tat ");
+    }
+
+    @Test
+    void given_negativeSlowAfterPercentile_when_bind_then_validationFails() {
+        assertThatThrownBy(() -> Operation.create(new OpWithInvalidThreshold()))
+                .isInstanceOf(OperationValidationException.class)
+                .hasMessageContaining("Invalid [branch] slow after");
+    }
+
+    public static class OpWithSlowBranch {
+
+        @Branch(slowAfterMillis = 50)
+        public BranchOutput<?> slow(BranchContext context) throws InterruptedException {
+            Thread.sleep(400);
+            return context.outputBuilder(Object.class).build();
+        }
+
+        // not watched, the watchdog has no threshold of its own
+        @Branch
+        public BranchOutput<?> fast(BranchContext context) throws InterruptedException {
+            Thread.sleep(100);
+            return context.outputBuilder(Object.class).build();
+        }
+    }
+
+    public static class OpWithInvalidThreshold {
+
+        @Branch(slowAfterPercentile = -1)
+        public BranchOutput<?> branch(BranchContext context) {
+            return context.outputBuilder(Object.class).build();
+        }
+    }
+}
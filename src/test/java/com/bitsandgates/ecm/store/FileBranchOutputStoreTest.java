@@ -0,0 +1,95 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.store;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.bitsandgates.ecm.domain.BranchError;
+import com.bitsandgates.ecm.domain.BranchInput;
+import com.bitsandgates.ecm.domain.BranchOutput;
+import com.bitsandgates.ecm.domain.Request;
+
+public class FileBranchOutputStoreTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void given_journal_when_reopened_then_incompleteOperationsRecoveredWithOutputs() throws IOException {
+        Path file = dir.resolve("journal");
+        Request completed = request("1");
+        Request incomplete = request("2");
+        try (FileBranchOutputStore store = FileBranchOutputStore.open(file)) {
+            store.started(completed);
+            store.started(incomplete);
+            store.input(incomplete, BranchInput.builder().value("input").build());
+            store.output(completed, output("branch1", false));
+            store.output(incomplete, output("branch1", true));
+            store.output(incomplete, output("branch1", false));
+            store.output(incomplete, output("branch2", true));
+            store.completed(completed);
+            store.flush().join();
+        }
+
+        try (FileBranchOutputStore store = FileBranchOutputStore.open(file)) {
+            List<Request> requests = store.incomplete();
+
+            assertThat(requests).hasSize(1);
+            Request request = requests.get(0);
+            assertThat(request.getTraceId()).isEqualTo("2");
+            assertThat(request.getRetry().getBranchInput().getValue()).isEqualTo("input");
+            assertThat(request.getRetry().getOutputs()).extracting(BranchOutput::getBranchId).containsExactly("branch1", "branch2");
+            assertThat(request.getRetry().getOutputs()).extracting(BranchOutput::isRetry).containsExactly(false, true);
+        }
+    }
+
+    @Test
+    void given_journalWithTornRecord_when_reopened_then_recordTruncatedAndEarlierRecordsKept() throws IOException {
+        Path file = dir.resolve("journal");
+        try (FileBranchOutputStore store = FileBranchOutputStore.open(file)) {
+            store.started(request("1"));
+            store.flush().join();
+        }
+        long size = Files.size(file);
+        try (FileBranchOutputStore store = FileBranchOutputStore.open(file)) {
+            store.started(request("2"));
+            store.flush().join();
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(Files.size(file) - 3);
+        }
+
+        try (FileBranchOutputStore store = FileBranchOutputStore.open(file)) {
+            assertThat(store.incomplete()).extracting(Request::getTraceId).containsExactly("1");
+            assertThat(store.incomplete().get(0).getRetry()).isNull();
+        }
+        assertThat(Files.size(file)).isEqualTo(size);
+    }
+
+    private static Request request(String traceId) {
+        return Request.builder().operatonId("operation").traceId(traceId).build();
+    }
+
+    private static BranchOutput<?> output(String branchId, boolean retry) {
+        return BranchOutput.builder()
+                .branchId(branchId)
+                .error(retry ? BranchError.builder().canRetry(true).build() : null)
+                .build();
+    }
+}
@@ -0,0 +1,112 @@
+/*
+Copyright (c) 2020, Kayvan Mojarrad
+All rights reserved.
+
+This source code is licensed under the BSD-style license found in the
+LICENSE file in the root directory of this source tree. 
+*/
+
+package com.bitsandgates.ecm.store;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.bitsandgates.ecm.domain.BranchError;
+import com.bitsandgates.ecm.domain.BranchInput;
+import com.bitsandgates.ecm.domain.BranchOutput;
+import com.bitsandgates.ecm.domain.Request;
+
+public class MappedBranchOutputStoreTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void given_journal_when_reopened_then_incompleteOperationsRecoveredWithOutputs() throws IOException {
+        Request completed = request("1");
+        Request incomplete = request("2");
+        try (MappedBranchOutputStore store = MappedBranchOutputStore.open(dir)) {
+            store.started(completed);
+            store.started(incomplete);
+            store.input(incomplete, BranchInput.builder().value("input").build());
+            store.output(completed, output("branch1", 0, "result", null));
+            store.output(incomplete, output("branch1", 0, null, BranchError.builder().canRetry(true).errorMessage("failed").build()));
+            store.output(incomplete, output("branch1", 0, "result", null));
+            store.output(incomplete, output("branch2", 3, null, BranchError.builder().canRetry(false).errorMessage("broken").errorTrace("trace").build()));
+            store.completed(completed);
+        }
+
+        try (MappedBranchOutputStore store = MappedBranchOutputStore.open(dir)) {
+            List<Request> requests = store.incomplete();
+
+            assertThat(requests).extracting(Request::getTraceId).containsExactly("2");
+            Request request = requests.get(0);
+            assertThat(request.getRetry().getBranchInput().getValue()).isEqualTo("input");
+            List<BranchOutput<?>> outputs = request.getRetry().getOutputs();
+            assertThat(outputs).extracting(BranchOutput::getBranchId).containsExactly("branch1", "branch2");
+            assertThat(outputs.get(0).getResult()).isEqualTo("result");
+            assertThat(outputs.get(0).isError()).isFalse();
+            assertThat(outputs.get(1).getIndex()).isEqualTo(3);
+            assertThat(outputs.get(1).isError()).isTrue();
+            assertThat(outputs.get(1).isRetry()).isFalse();
+            assertThat(outputs.get(1).getError().getErrorMessage()).isEqualTo("broken");
+            // traces are not journaled
+            assertThat(outputs.get(1).getError().getErrorTrace()).isNull();
+        }
+    }
+
+    @Test
+    void given_segmentsOfCompletedOperations_when_compacted_then_segmentsDeletedAndPendingKept() throws IOException {
+        try (MappedBranchOutputStore store = MappedBranchOutputStore.open(dir, 1024)) {
+            Request pending = request("pending");
+            store.started(pending);
+            store.input(pending, BranchInput.builder().value("input").build());
+            store.output(pending, output("branch1", 0, "result", null));
+            for (int i = 0; i < 50; i++) {
+                Request request = request(String.valueOf(i));
+                store.started(request);
+                store.output(request, output("branch1", 0, "result", null));
+                store.completed(request);
+            }
+            long segments = countSegments();
+            assertThat(segments).isGreaterThan(2);
+
+            store.compact();
+
+            assertThat(countSegments()).isLessThan(segments);
+        }
+
+        try (MappedBranchOutputStore store = MappedBranchOutputStore.open(dir, 1024)) {
+            assertThat(store.incomplete()).extracting(Request::getTraceId).containsExactly("pending");
+            assertThat(store.incomplete().get(0).getRetry().getOutputs()).hasSize(1);
+            assertThat(countSegments()).isEqualTo(2);
+        }
+    }
+
+    private long countSegments() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(".log")).count();
+        }
+    }
+
+    private static Request request(String traceId) {
+        return Request.builder().operatonId("operation").traceId(traceId).build();
+    }
+
+    private static BranchOutput<?> output(String branchId, int index, Object result, BranchError error) {
+        return BranchOutput.builder()
+                .branchId(branchId)
+                .index(index)
+                .result(result)
+                .error(error)
+                .build();
+    }
+}